@@ -28,4 +28,15 @@ public class SamplerFromMCMC extends MCMC implements Sampler {
         for(int i = 0; i < storeEvery; i++)
             propagateState(sampleNr);
     }
+
+    @Override
+    public String getCheckpointState() {
+        return state.toXML(0);
+    }
+
+    @Override
+    public void restoreCheckpointState(String stateXML) {
+        state.fromXML(stateXML);
+        oldLogLikelihood = state.robustlyCalcPosterior(posterior);
+    }
 }
@@ -0,0 +1,175 @@
+package beastvalidation.experimenter;
+
+import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.Tree;
+
+/**
+ * Counts how often clades occur in a set of trees, as CladeSystem does for clade coverage, but without
+ * allocating objects for every clade of every tree. A clade key is a fixed number of longs: one bit for
+ * every taxon, followed by a word with 1 + the number of the taxon that is a sampled ancestor at the top
+ * of the clade, or 0 if there is none (this is the odd bit in the layout of CladeSystem).
+ *
+ * Keys are stored back to back in one array of an open addressing hash table, together with their
+ * 64-bit hashes, so that most probes are settled by comparing hashes only.
+ */
+public class CladeCounter {
+
+	public interface CladeVisitor {
+		/** @param key array holding the clade key, starting at offset **/
+		void visit(long [] key, int offset, int count);
+	}
+
+	private final int taxonWords;
+	// longs per key
+	private final int width;
+
+	private long [] keys;
+	private long [] hashes;
+	// number of trees containing the clade, where 0 marks an empty slot
+	private int [] counts;
+	private int size;
+	private int treeCount;
+
+	// keys of the clades below every node of the tree being added, by node number
+	private long [] nodeKeys = new long[0];
+
+	public CladeCounter(int taxonCount) {
+		taxonWords = (taxonCount + 63) / 64;
+		width = taxonWords + 1;
+		allocate(64);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity * width];
+		hashes = new long[capacity];
+		counts = new int[capacity];
+		size = 0;
+	}
+
+	/** counts the clades of all internal nodes of the tree **/
+	public void add(Tree tree) {
+		int nodeCount = tree.getNodeCount();
+		if (nodeKeys.length < nodeCount * width) {
+			nodeKeys = new long[nodeCount * width];
+		}
+		addClades(tree.getRoot());
+		treeCount++;
+	}
+
+	private void addClades(Node node) {
+		int offset = node.getNr() * width;
+		for (int k = 0; k < width; k++) {
+			nodeKeys[offset + k] = 0;
+		}
+		if (node.isLeaf()) {
+			int taxon = node.getNr();
+			nodeKeys[offset + taxon / 64] |= 1L << taxon;
+			return;
+		}
+		for (int i = 0; i < node.getChildCount(); i++) {
+			Node child = node.getChild(i);
+			addClades(child);
+			int childOffset = child.getNr() * width;
+			for (int k = 0; k < taxonWords; k++) {
+				nodeKeys[offset + k] |= nodeKeys[childOffset + k];
+			}
+		}
+		if (node.isFake()) {
+			nodeKeys[offset + taxonWords] = node.getDirectAncestorChild().getNr() + 1;
+		}
+		increment(nodeKeys, offset, hash(nodeKeys, offset));
+	}
+
+	private void increment(long [] key, int offset, long hash) {
+		int slot = find(key, offset, hash);
+		if (counts[slot] == 0) {
+			System.arraycopy(key, offset, keys, slot * width, width);
+			hashes[slot] = hash;
+			size++;
+		}
+		counts[slot]++;
+		// keep at least half the table empty so probe sequences stay short
+		if (size * 2 > counts.length) {
+			grow();
+		}
+	}
+
+	private void grow() {
+		long [] oldKeys = keys;
+		long [] oldHashes = hashes;
+		int [] oldCounts = counts;
+		allocate(oldCounts.length * 2);
+		for (int slot = 0; slot < oldCounts.length; slot++) {
+			if (oldCounts[slot] > 0) {
+				int newSlot = find(oldKeys, slot * width, oldHashes[slot]);
+				System.arraycopy(oldKeys, slot * width, keys, newSlot * width, width);
+				hashes[newSlot] = oldHashes[slot];
+				counts[newSlot] = oldCounts[slot];
+				size++;
+			}
+		}
+	}
+
+	/** slot holding the key, or the empty slot where it would go, using linear probing **/
+	private int find(long [] key, int offset, long hash) {
+		int mask = counts.length - 1;
+		int slot = (int) (hash ^ (hash >>> 32)) & mask;
+		while (counts[slot] > 0 && !(hashes[slot] == hash && equals(slot, key, offset))) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private boolean equals(int slot, long [] key, int offset) {
+		int start = slot * width;
+		for (int k = 0; k < width; k++) {
+			if (keys[start + k] != key[offset + k]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private long hash(long [] key, int offset) {
+		long h = 0;
+		for (int k = 0; k < width; k++) {
+			h = (h ^ key[offset + k]) * 0x9E3779B97F4A7C15L;
+			h ^= h >>> 29;
+		}
+		return h;
+	}
+
+	/** @return number of trees added that contain the clade, which may be 0 **/
+	public int getCount(long [] key, int offset) {
+		return counts[find(key, offset, hash(key, offset))];
+	}
+
+	public void forEachClade(CladeVisitor visitor) {
+		for (int slot = 0; slot < counts.length; slot++) {
+			if (counts[slot] > 0) {
+				visitor.visit(keys, slot * width, counts[slot]);
+			}
+		}
+	}
+
+	public boolean containsTaxon(long [] key, int offset, int taxon) {
+		return (key[offset + taxon / 64] & (1L << taxon)) != 0;
+	}
+
+	/** number of taxa in the clade, where a sampled ancestor at the top counts twice as it does in CladeSystem **/
+	public int cardinality(long [] key, int offset) {
+		int cardinality = key[offset + taxonWords] != 0 ? 1 : 0;
+		for (int k = 0; k < taxonWords; k++) {
+			cardinality += Long.bitCount(key[offset + k]);
+		}
+		return cardinality;
+	}
+
+	public int getTreeCount() {
+		return treeCount;
+	}
+
+	public int size() {
+		return size;
+	}
+}
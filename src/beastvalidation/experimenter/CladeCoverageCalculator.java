@@ -1,16 +1,16 @@
 package beastvalidation.experimenter;
 
-import java.awt.Color;
-import java.awt.Graphics;
-import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.BitSet;
-
-import javax.imageio.ImageIO;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import beast.base.core.Description;
 import beast.base.core.Input;
@@ -18,29 +18,11 @@ import beast.base.core.Log;
 import beast.base.evolution.tree.Tree;
 import beast.base.core.Input.Validate;
 import beast.base.inference.Runnable;
-import beastfx.app.beauti.ThemeProvider;
 import beastfx.app.tools.Application;
-import beastfx.app.treeannotator.CladeSystem;
-import beastfx.app.treeannotator.CladeSystem.Clade;
 import beastfx.app.treeannotator.TreeAnnotator;
 import beastfx.app.treeannotator.TreeAnnotator.TreeSet;
-import beastfx.app.util.Alert;
 import beastfx.app.util.OutFile;
 import beastfx.app.util.TreeFile;
-import javafx.application.Platform;
-import javafx.embed.swing.JFXPanel;
-import javafx.embed.swing.SwingFXUtils;
-import javafx.scene.Node;
-import javafx.scene.Scene;
-import javafx.scene.SnapshotParameters;
-import javafx.scene.chart.BarChart;
-import javafx.scene.chart.CategoryAxis;
-import javafx.scene.chart.NumberAxis;
-import javafx.scene.chart.XYChart;
-import javafx.scene.control.Dialog;
-import javafx.scene.control.DialogPane;
-import javafx.scene.image.WritableImage;
-import javafx.scene.layout.HBox;
 
 @Description("Calculate coverage of clade probabilities")
 public class CladeCoverageCalculator extends Runnable {
@@ -55,9 +37,30 @@ public class CladeCoverageCalculator extends Runnable {
 			"percentage of trees to used as burn-in (and will be ignored)", 10);
 	final public Input<OutFile> pngFileInput = new Input<>("png", "name of file to write bar-chart plot",
 			new OutFile("[[none]]"));
+	final public Input<OutFile> svgFileInput = new Input<>("svg", "name of file to write bar-chart plot as SVG",
+			new OutFile("[[none]]"));
 	final public Input<Integer> binCountInput = new Input<>("bins", "number of bins=bars to use for the chart", 10);
 
 	final public Input<Integer> skipInput = new Input<>("skip", "number of trees in truth to skip", 1);
+	final public Input<Integer> threadsInput = new Input<>("threads", "number of replicates processed at the same time. "
+			+ "Each holds the clades of all its trees in memory, so memory use grows with the number of threads", 1);
+
+	// replicates usually share their taxa, so the map from names to numbers is only built once
+	private final Map<List<String>, TaxonIndex> taxonIndices = new ConcurrentHashMap<>();
+
+	/** clade counts of one replicate, or of all replicates once merged, with warnings to report in replicate order **/
+	public static class ReplicateCounts {
+		public final int[] truebins;
+		public final int[] totals;
+		public int missedClades;
+		public int totalClades;
+		final List<String> warnings = new ArrayList<>();
+
+		ReplicateCounts(int binCount) {
+			truebins = new int[binCount];
+			totals = new int[binCount];
+		}
+	}
 
 	@Override
 	public void initAndValidate() {
@@ -65,91 +68,17 @@ public class CladeCoverageCalculator extends Runnable {
 
 	@Override
 	public void run() throws Exception {
-//		showCoveragePlot(new int[]{164, 13, 8, 16, 16, 15, 27, 23, 28, 22, 31, 33, 31, 42, 57, 44, 61, 97, 142, 4030}, 
-//				new int[]{1232, 224, 141, 107, 91, 89, 83, 89, 72, 64, 69, 84, 70, 76, 86, 74, 97, 119, 162, 4046}, 
-//				new File("/tmp/out.png"));
-//		Platform.exit();
-//		System.exit(0);
-
 		PrintStream out = System.out;
 		if (outputInput.get() != null && !outputInput.get().getName().equals("[[none]]")) {
 			Log.warning("Writing to file " + outputInput.get().getPath());
 			out = new PrintStream(outputInput.get());
 		}
 
-		int binCount = binCountInput.get();
-		int[] truebins = new int[binCount];
-		int[] totals = new int[truebins.length];
-
-		TreeSet trueTrees = new TreeAnnotator().new MemoryFriendlyTreeSet(truthInput.get().getPath(), 0);
-		int n = trueTrees.totalTrees - skipInput.get();
-		trueTrees.reset();
-		for (int i = 0; i < skipInput.get(); i++) {
-			trueTrees.next();
-		}
-
-		int i = 0;
-		int missedClades = 0;
-		int totalClades = 0;
-		while (trueTrees.hasNext()) {
-			Tree trueTree = trueTrees.next();
-
-			String filename = logFilePrefixInput.get().getPath() + i + ".trees";
-			TreeSet estimatedTrees = new TreeAnnotator().new MemoryFriendlyTreeSet(filename,
-					burnInPercentageInput.get());
-			estimatedTrees.reset();
-			CladeSystem clades = new CladeSystem();
-			double treeCount = 0;
-			Tree tree = null;
-			while (estimatedTrees.hasNext()) {
-				tree = estimatedTrees.next();
-				if (treeCount == 0) {
-					normalise(trueTree, tree);
-				}
-				clades.add(tree, false);
-				treeCount++;
-			}
-
-			for (Clade clade : clades.getCladeMap().values()) {
-				double p = clade.getCount() / treeCount;
-				int b = (int) (totals.length * p);
-				if (b >= totals.length) {
-					b = totals.length - 1;
-				}
-				totals[b]++;
-			}
-
-			CladeSystem trueClades = new CladeSystem();
-			trueClades.add(trueTree, false);
-
-			for (BitSet bits : trueClades.getCladeMap().keySet()) {
-				Clade clade = clades.getCladeMap().get(bits);
-				totalClades++;
-				if (clade == null) {
-					StringBuilder b = new StringBuilder();
-					int taxonCount = trueTree.getLeafNodeCount();
-					for (int j = 0; j < taxonCount; j++) {
-						if (bits.get(j * 2)) {
-							b.append(tree.getNode(j).getID() + ",");
-						}
-					}
-					b.deleteCharAt(b.length() - 1);
-					Log.warning(i + ":" + bits.cardinality() + " taxa clade not found: " + b.toString());
-					// put this in the zero probability bin
-					truebins[0]++;
-					missedClades++;
-				} else {
-					double p = clade.getCount() / treeCount;
-					int b = (int) (truebins.length * p);
-					if (b >= truebins.length) {
-						b = truebins.length - 1;
-					}
-					truebins[b]++;
-				}
-			}
-
-			i++;
-		}
+		ReplicateCounts counts = countClades(threadsInput.get());
+		int[] truebins = counts.truebins;
+		int[] totals = counts.totals;
+		int missedClades = counts.missedClades;
+		int totalClades = counts.totalClades;
 
 		System.out.println();
 		System.out.println("totals: " + Arrays.toString(totals));
@@ -167,104 +96,119 @@ public class CladeCoverageCalculator extends Runnable {
 			out.close();
 		}
 
+		CladeCoveragePlot plot = new CladeCoveragePlot(truebins, totals);
 		if (pngFileInput.get() != null && !pngFileInput.get().getName().equals("[[none]]")) {
-			showCoveragePlot(truebins, totals, pngFileInput.get());
+			Log.warning("Writing to file " + pngFileInput.get().getPath());
+			plot.writePNG(pngFileInput.get());
+		}
+		if (svgFileInput.get() != null && !svgFileInput.get().getName().equals("[[none]]")) {
+			Log.warning("Writing to file " + svgFileInput.get().getPath());
+			plot.writeSVG(svgFileInput.get());
 		}
 
 		Log.warning("\nDone");
-		Platform.exit();
 	}
 
-	private void normalise(Tree trueTree, Tree tree) {
-		int n = tree.getLeafNodeCount();
-		for (int i = 0; i < n; i++) {
-			beast.base.evolution.tree.Node node = tree.getNode(i);
-			String name = node.getID();
-			for (int j = 0; j < n; j++) {
-				beast.base.evolution.tree.Node node2 = trueTree.getNode(i);
-				if (node2.getID().equals(name)) {
-					node2.setNr(i);
-					break;
+	/** clade counts of all replicates, which are processed in parallel and merged in order **/
+	public ReplicateCounts countClades(int threads) throws IOException, InterruptedException {
+		int binCount = binCountInput.get();
+		ReplicateCounts merged = new ReplicateCounts(binCount);
+
+		TreeSet trueTrees = new TreeAnnotator().new MemoryFriendlyTreeSet(truthInput.get().getPath(), 0);
+		trueTrees.reset();
+		for (int i = 0; i < skipInput.get(); i++) {
+			trueTrees.next();
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<ReplicateCounts>> replicates = new ArrayList<>();
+			int i = 0;
+			while (trueTrees.hasNext()) {
+				Tree trueTree = trueTrees.next();
+				int replicate = i;
+				replicates.add(pool.submit(() -> processReplicate(replicate, trueTree, binCount)));
+				i++;
+			}
+
+			for (Future<ReplicateCounts> future : replicates) {
+				ReplicateCounts counts = Tasks.get(future);
+				for (String warning : counts.warnings) {
+					Log.warning(warning);
+				}
+				for (int b = 0; b < binCount; b++) {
+					merged.truebins[b] += counts.truebins[b];
+					merged.totals[b] += counts.totals[b];
 				}
+				merged.missedClades += counts.missedClades;
+				merged.totalClades += counts.totalClades;
 			}
+		} finally {
+			pool.shutdown();
 		}
+		return merged;
 	}
 
-	static public void showCoveragePlot(int[] truebins, int[] totals, File pngfile) {
-		// this initialised the javafx toolkit
-		new JFXPanel();
-		Platform.runLater(() -> {
-
-			HBox root = new HBox();
-
-			Scene scene = new Scene(root, 60 * totals.length, 60 * totals.length);
-			CategoryAxis xAxis = new CategoryAxis();
-			xAxis.setLabel("Inferred");
-
-			NumberAxis yAxis = new NumberAxis();
-			yAxis.setLabel("Actual");
-			yAxis.setAutoRanging(false);
-			yAxis.setLowerBound(0);
-			yAxis.setUpperBound(100);
-
-			BarChart barChart = new BarChart(xAxis, yAxis);
-			barChart.setTitle("Clades true vs inferred ");
-			barChart.setPrefSize(60 * totals.length - 77, 60 * totals.length - 52);
-
-			XYChart.Series data = new XYChart.Series<String, Number>();
-
-			for (int i = 0; i < truebins.length; i++) {
-				data.getData().add(new XYChart.Data<>(
-						(i * 100) / truebins.length + "-" + ((i + 1) * 100) / truebins.length + "\n" + totals[i],
-						totals[i] > 0 ? 100.0 * truebins[i] / totals[i] : 0));
+	private ReplicateCounts processReplicate(int i, Tree trueTree, int binCount) throws IOException {
+		ReplicateCounts counts = new ReplicateCounts(binCount);
+		int[] truebins = counts.truebins;
+		int[] totals = counts.totals;
+
+		String filename = logFilePrefixInput.get().getPath() + i + ".trees";
+		TreeSet estimatedTrees = new TreeAnnotator().new MemoryFriendlyTreeSet(filename,
+				burnInPercentageInput.get());
+		estimatedTrees.reset();
+		CladeCounter clades = new CladeCounter(trueTree.getLeafNodeCount());
+		Tree tree = null;
+		while (estimatedTrees.hasNext()) {
+			tree = estimatedTrees.next();
+			if (clades.getTreeCount() == 0) {
+				// give taxa of the true tree the numbers they have in the sampled trees
+				taxonIndices.computeIfAbsent(TaxonIndex.getTaxa(tree), TaxonIndex::new).renumber(trueTree);
 			}
+			clades.add(tree);
+		}
+		double treeCount = clades.getTreeCount();
 
-			barChart.getData().add(data);
-			barChart.setLegendVisible(false);
-			barChart.setVerticalGridLinesVisible(false);
-
-			root.getChildren().add(barChart);
-
-			Dialog<Node> alert = new javafx.scene.control.Dialog<>();
-			DialogPane pane = new DialogPane();
-			pane.setContent(root);
-			alert.setDialogPane(pane);
-			alert.setHeaderText("coverage");
-			alert.getDialogPane().getButtonTypes().addAll(Alert.CLOSED_OPTION);
-			pane.setPrefHeight(60 * totals.length);
-			pane.setPrefWidth(60 * totals.length);
-			alert.setResizable(true);
-			ThemeProvider.loadStyleSheet(alert.getDialogPane().getScene());
-
-			SnapshotParameters param = new SnapshotParameters();
-			param.setDepthBuffer(true);
-			WritableImage snapshot = root.snapshot(param, null);
-			BufferedImage tempImg = SwingFXUtils.fromFXImage(snapshot, null);
-			try {
-				Graphics g = tempImg.getGraphics();
-				g.setColor(Color.black);
-				g.drawLine(77,  60 * totals.length - (600-429), totals.length * 60 - (600-490), 52);
-				ImageIO.write(tempImg, "png", new FileOutputStream(pngfile));
-			} catch (IOException e) {
-				e.printStackTrace();
+		clades.forEachClade((key, offset, count) -> {
+			double p = count / treeCount;
+			int b = (int) (totals.length * p);
+			if (b >= totals.length) {
+				b = totals.length - 1;
 			}
-
-//		    try {
-//			    System.out.println("To Printer!");
-//	            PrinterJob job = PrinterJob.createPrinterJob();
-//	            Stage primaryStage = new Stage();
-//	            primaryStage.setScene(scene);
-//	            if(job != null){
-//		            job.showPrintDialog(primaryStage); 
-//		            job.printPage(root);
-//		            job.endJob();
-//	            }
-//		    } catch (Throwable e) {
-//				e.printStackTrace();
-//			}			
-			// alert.showAndWait();
+			totals[b]++;
 		});
 
+		CladeCounter trueClades = new CladeCounter(trueTree.getLeafNodeCount());
+		trueClades.add(trueTree);
+
+		Tree lastTree = tree;
+		trueClades.forEachClade((key, offset, trueCount) -> {
+			int count = clades.getCount(key, offset);
+			counts.totalClades++;
+			if (count == 0) {
+				StringBuilder b = new StringBuilder();
+				int taxonCount = trueTree.getLeafNodeCount();
+				for (int j = 0; j < taxonCount; j++) {
+					if (trueClades.containsTaxon(key, offset, j)) {
+						b.append(lastTree.getNode(j).getID() + ",");
+					}
+				}
+				b.deleteCharAt(b.length() - 1);
+				counts.warnings.add(i + ":" + trueClades.cardinality(key, offset) + " taxa clade not found: " + b.toString());
+				// put this in the zero probability bin
+				truebins[0]++;
+				counts.missedClades++;
+			} else {
+				double p = count / treeCount;
+				int b = (int) (truebins.length * p);
+				if (b >= truebins.length) {
+					b = truebins.length - 1;
+				}
+				truebins[b]++;
+			}
+		});
+		return counts;
 	}
 
 	public static void main(String[] args) throws Exception {
@@ -0,0 +1,144 @@
+package beastvalidation.experimenter;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Bar chart of the percentage of true clades against the clade support inferred for them, drawn
+ * without a GUI toolkit so it works on machines without a display. The chart is written as SVG,
+ * or as PNG through a BufferedImage, with the same layout: one bar per support bin, labelled with
+ * the range of the bin and the number of clades in it, and the diagonal where the two agree.
+ */
+public class CladeCoveragePlot {
+	final static String BAR_COLOUR = "#5099ff";
+	final static int LEFT = 70, RIGHT = 20, TOP = 50, BOTTOM = 70;
+
+	private final int [] truebins;
+	private final int [] totals;
+	private final int width, height;
+	private final double plotWidth, plotHeight;
+
+	public CladeCoveragePlot(int [] truebins, int [] totals) {
+		this.truebins = truebins;
+		this.totals = totals;
+		width = Math.max(60 * totals.length, 400);
+		height = width;
+		plotWidth = width - LEFT - RIGHT;
+		plotHeight = height - TOP - BOTTOM;
+	}
+
+	private double percentage(int i) {
+		return totals[i] > 0 ? 100.0 * truebins[i] / totals[i] : 0;
+	}
+
+	private double x(double percentage) {
+		return LEFT + plotWidth * percentage / 100;
+	}
+
+	private double y(double percentage) {
+		return TOP + plotHeight * (100 - percentage) / 100;
+	}
+
+	private String binLabel(int i) {
+		return (i * 100) / totals.length + "-" + ((i + 1) * 100) / totals.length;
+	}
+
+	public void writeSVG(File file) throws IOException {
+		try (ReportWriter svg = new ReportWriter(file)) {
+			svg.print("<svg class=\"chart\" width=\"").print(width).print("\" height=\"").print(height)
+				.println("\" xmlns=\"http://www.w3.org/2000/svg\" font-family=\"sans-serif\">");
+			svg.print("<text x=\"").print(width / 2).println("\" y=\"30\" text-anchor=\"middle\" style=\"font-size:18px\">Clades true vs inferred</text>");
+
+			// grid lines and y-axis labels
+			for (int p = 0; p <= 100; p += 20) {
+				svg.print("<line x1=\"").print(x(0)).print("\" y1=\"").print(y(p)).print("\" x2=\"").print(x(100)).print("\" y2=\"").print(y(p))
+					.println("\" style=\"stroke-width:1;stroke:#e0e0e0\"/>");
+				svg.print("<text x=\"").print(x(0) - 5).print("\" y=\"").print(y(p) + 4).print("\" text-anchor=\"end\" style=\"font-size:12px\">").print(p).println("</text>");
+			}
+
+			double barWidth = plotWidth / totals.length;
+			for (int i = 0; i < totals.length; i++) {
+				double h = plotHeight * percentage(i) / 100;
+				svg.print("<rect x=\"").print(x(0) + (i + 0.1) * barWidth).print("\" y=\"").print(y(0) - h).print("\" width=\"").print(0.8 * barWidth)
+					.print("\" height=\"").print(h).print("\" style=\"fill:").print(BAR_COLOUR).println("\"/>");
+				double cx = x(0) + (i + 0.5) * barWidth;
+				svg.print("<text x=\"").print(cx).print("\" y=\"").print(y(0) + 16).print("\" text-anchor=\"middle\" style=\"font-size:12px\">").print(binLabel(i)).println("</text>");
+				svg.print("<text x=\"").print(cx).print("\" y=\"").print(y(0) + 30).print("\" text-anchor=\"middle\" style=\"font-size:12px\">").print(totals[i]).println("</text>");
+			}
+
+			// axes and the diagonal where inferred support matches the fraction of true clades
+			svg.print("<rect x=\"").print(x(0)).print("\" y=\"").print(y(100)).print("\" width=\"").print(plotWidth).print("\" height=\"").print(plotHeight)
+				.println("\" style=\"fill:none;stroke-width:1;stroke:rgb(0,0,0)\"/>");
+			svg.print("<line x1=\"").print(x(0)).print("\" y1=\"").print(y(0)).print("\" x2=\"").print(x(100)).print("\" y2=\"").print(y(100))
+				.println("\" style=\"stroke-width:1;stroke:rgb(0,0,0)\"/>");
+
+			svg.print("<text x=\"").print(x(50)).print("\" y=\"").print(height - 10).println("\" text-anchor=\"middle\" style=\"font-size:14px\">Inferred</text>");
+			svg.print("<text x=\"0\" y=\"0\" transform=\"translate(20,").print(y(50)).println(") rotate(-90)\" text-anchor=\"middle\" style=\"font-size:14px\">Actual</text>");
+			svg.println("</svg>");
+		}
+	}
+
+	public void writePNG(File file) throws IOException {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			g.setColor(Color.white);
+			g.fillRect(0, 0, width, height);
+
+			g.setColor(Color.black);
+			g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 18));
+			drawString(g, "Clades true vs inferred", width / 2.0, 30, 0.5);
+
+			g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
+			for (int p = 0; p <= 100; p += 20) {
+				g.setColor(new Color(0xe0e0e0));
+				g.draw(new Line2D.Double(x(0), y(p), x(100), y(p)));
+				g.setColor(Color.black);
+				drawString(g, Integer.toString(p), x(0) - 5, y(p) + 4, 1);
+			}
+
+			double barWidth = plotWidth / totals.length;
+			for (int i = 0; i < totals.length; i++) {
+				double h = plotHeight * percentage(i) / 100;
+				g.setColor(Color.decode(BAR_COLOUR));
+				g.fill(new Rectangle2D.Double(x(0) + (i + 0.1) * barWidth, y(0) - h, 0.8 * barWidth, h));
+				g.setColor(Color.black);
+				double cx = x(0) + (i + 0.5) * barWidth;
+				drawString(g, binLabel(i), cx, y(0) + 16, 0.5);
+				drawString(g, Integer.toString(totals[i]), cx, y(0) + 30, 0.5);
+			}
+
+			g.setStroke(new BasicStroke(1));
+			g.draw(new Rectangle2D.Double(x(0), y(100), plotWidth, plotHeight));
+			g.draw(new Line2D.Double(x(0), y(0), x(100), y(100)));
+
+			g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 14));
+			drawString(g, "Inferred", x(50), height - 10, 0.5);
+			g.rotate(-Math.PI / 2);
+			// in rotated coordinates x runs up the image
+			drawString(g, "Actual", -y(50), 20, 0.5);
+		} finally {
+			g.dispose();
+		}
+		ImageIO.write(image, "png", file);
+	}
+
+	/** draws text with its baseline at y, where anchor 0, 0.5 and 1 put x at its start, middle and end **/
+	private static void drawString(Graphics2D g, String text, double x, double y, double anchor) {
+		FontMetrics metrics = g.getFontMetrics();
+		g.drawString(text, (float) (x - anchor * metrics.stringWidth(text)), (float) y);
+	}
+}
@@ -0,0 +1,156 @@
+package beastvalidation.experimenter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Coverage outcomes of each replicate of a coverage study, kept in a file between runs of CoverageCalculator,
+ * so that replicates are only processed once as they complete. Replicates are identified by their entry
+ * in the log with true values, so they need to be numbered by the names of their files. The true value and
+ * estimates are kept with every outcome, so charts can be drawn over all replicates seen so far.
+ */
+public class CoverageAccumulator {
+	final static int MAGIC = 0x434f5641;
+	final static int VERSION = 2;
+
+	/** whether the true value was covered and exceeded the mean, with the values this was decided on, of one entry in one replicate **/
+	public static class Outcome {
+		public final boolean covered;
+		public final boolean over;
+		public final double ess;
+		public final double trueValue;
+		public final double mean;
+		public final double median;
+		public final double lower;
+		public final double upper;
+
+		public Outcome(boolean covered, boolean over, double ess, double trueValue, double mean, double median, double lower, double upper) {
+			this.covered = covered;
+			this.over = over;
+			this.ess = ess;
+			this.trueValue = trueValue;
+			this.mean = mean;
+			this.median = median;
+			this.lower = lower;
+			this.upper = upper;
+		}
+	}
+
+	private final File file;
+	private int firstFileNumber = -1;
+	private final TreeSet<Integer> replicates = new TreeSet<>();
+	private final Map<String, TreeMap<Integer, Outcome>> outcomes = new LinkedHashMap<>();
+
+	private CoverageAccumulator(File file) {
+		this.file = file;
+	}
+
+	/** reads the accumulated outcomes, or starts afresh if the file does not exist yet **/
+	public static CoverageAccumulator load(File file) throws IOException {
+		CoverageAccumulator accumulator = new CoverageAccumulator(file);
+		if (!file.exists()) {
+			return accumulator;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(file.getPath() + " is not a coverage accumulator file");
+			}
+			if (in.readInt() != VERSION) {
+				throw new IOException(file.getPath() + " was written by another version -- remove it to start afresh");
+			}
+			accumulator.firstFileNumber = in.readInt();
+			int replicateCount = in.readInt();
+			for (int i = 0; i < replicateCount; i++) {
+				accumulator.replicates.add(in.readInt());
+			}
+			int labelCount = in.readInt();
+			for (int i = 0; i < labelCount; i++) {
+				String label = in.readUTF();
+				int count = in.readInt();
+				for (int j = 0; j < count; j++) {
+					int replicate = in.readInt();
+					int flags = in.readByte();
+					accumulator.add(label, replicate, new Outcome((flags & 1) != 0, (flags & 2) != 0, in.readDouble(),
+							in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble()));
+				}
+			}
+		}
+		return accumulator;
+	}
+
+	/** writes under another name first, so an interrupted save leaves the previous state intact **/
+	public void save() throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(firstFileNumber);
+			out.writeInt(replicates.size());
+			for (int replicate : replicates) {
+				out.writeInt(replicate);
+			}
+			out.writeInt(outcomes.size());
+			for (Map.Entry<String, TreeMap<Integer, Outcome>> e : outcomes.entrySet()) {
+				out.writeUTF(e.getKey());
+				out.writeInt(e.getValue().size());
+				for (Map.Entry<Integer, Outcome> o : e.getValue().entrySet()) {
+					Outcome outcome = o.getValue();
+					out.writeInt(o.getKey());
+					out.writeByte((outcome.covered ? 1 : 0) | (outcome.over ? 2 : 0));
+					out.writeDouble(outcome.ess);
+					out.writeDouble(outcome.trueValue);
+					out.writeDouble(outcome.mean);
+					out.writeDouble(outcome.median);
+					out.writeDouble(outcome.lower);
+					out.writeDouble(outcome.upper);
+				}
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/** number of the file of the first replicate (0 or 1) as guessed by the first run, or -1 if not known yet **/
+	public int getFirstFileNumber() {
+		return firstFileNumber;
+	}
+
+	public void setFirstFileNumber(int firstFileNumber) {
+		this.firstFileNumber = firstFileNumber;
+	}
+
+	public boolean contains(int replicate) {
+		return replicates.contains(replicate);
+	}
+
+	/** marks a replicate as processed, which is done once it has outcomes, whether or not it has them for every entry **/
+	public void addReplicate(int replicate) {
+		replicates.add(replicate);
+	}
+
+	public int getReplicateCount() {
+		return replicates.size();
+	}
+
+	public void add(String label, int replicate, Outcome outcome) {
+		outcomes.computeIfAbsent(label, l -> new TreeMap<>()).put(replicate, outcome);
+	}
+
+	/** outcomes of an entry by replicate, empty if there are none **/
+	public SortedMap<Integer, Outcome> getOutcomes(String label) {
+		TreeMap<Integer, Outcome> labelOutcomes = outcomes.get(label);
+		return labelOutcomes == null ? new TreeMap<>() : labelOutcomes;
+	}
+}
@@ -5,13 +5,20 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.PrintStream;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
 
 import beastfx.app.inputeditor.BeautiDoc;
 import beastfx.app.tools.Application;
@@ -22,7 +29,6 @@ import beast.base.core.Input.Validate;
 import beast.base.inference.Runnable;
 import beast.base.core.Log;
 import beast.base.util.Binomial;
-import beastfx.app.tools.LogAnalyser;
 
 @Description("Calculate how many times entries in log file are covered in an estimated 95% HPD interval")
 public class CoverageCalculator extends Runnable {
@@ -48,6 +54,11 @@ public class CoverageCalculator extends Runnable {
 	final public Input<Integer> columnsInput = new Input<>("columns", "numer of columns in HTML output", 4);
 	final public Input<Double> epsilonInput = new Input<>("epsilon", "accuracy used for 95%HPD interval coverage -- specify if there are intervals of zero size", 0.0);
 
+	final public Input<File> incrementalInput = new Input<>("incremental", "file keeping coverage results of replicates between runs. If specified, only replicates in the "
+			+ "logAnalyser file that are not in it yet are processed, and coverage is reported over all replicates seen so far. Replicates are "
+			+ "identified by the number in their file name, so the logAnalyser file needs a filename column");
+	final public Input<Integer> threadsInput = new Input<>("threads", "number of threads used to process entries", Runtime.getRuntime().availableProcessors());
+
 	final public Input<Boolean> verboseInput = new Input<>("verbose", "verbose identification of mismatches", false);
 	final public Input<String> htmlTitleLabelInput = new Input<>("label", "label for html title (only used if html is generated, for which "
 			+ "'out' needs to be specified). Can also be set by the COVERAGE_LABEL environment variable or the `coveragelabel` java directive "
@@ -60,6 +71,7 @@ public class CoverageCalculator extends Runnable {
 	private double epsilon;
 
 	Map<String, String> typeMap;
+	private ExecutorService pool;
 	@Override
 	public void initAndValidate() {
 	}
@@ -81,13 +93,32 @@ public class CoverageCalculator extends Runnable {
 
 		typeMap = processTypes();
 
-		LogAnalyser truth = new LogAnalyser(logFileInput.get().getAbsolutePath(), 0, true, false);
-		LogAnalyser estimated = new LogAnalyser(logAnalyserFileInput.get().getAbsolutePath(), 0, true, false);
+		TraceStore truth = TraceStore.open(logFileInput.get(), 0);
+		TraceStore estimated = TraceStore.open(logAnalyserFileInput.get(), 0);
 		int skip = skipLogLinesInput.get();
-		int n = estimated.getTrace(0).length;
+		CoverageAccumulator accumulator = null;
+		if (incrementalInput.get() != null) {
+			accumulator = CoverageAccumulator.load(incrementalInput.get());
+		}
+		int [] map = guessFileOrder(estimated, skip, accumulator);
+
+		// replicates without a true value cannot be scored, and are left for a later run if incremental
+		int trueCount = truth.getSampleCount();
+		int [] rows = IntStream.range(0, estimated.getSampleCount()).filter(j -> map[j] < trueCount).toArray();
+		if (rows.length < estimated.getSampleCount()) {
+			Log.warning((estimated.getSampleCount() - rows.length) + " entries in " + logAnalyserFileInput.get().getPath() +
+					" have no true value in " + logFileInput.get().getPath() + " and are left out");
+		}
+		int n = rows.length;
+		if (accumulator != null) {
+			CoverageAccumulator known = accumulator;
+			rows = Arrays.stream(rows).filter(j -> !known.contains(map[j])).toArray();
+			n = accumulator.getReplicateCount() + rows.length;
+			Log.info("Adding " + rows.length + " new replicates to " + accumulator.getReplicateCount() + " in " + incrementalInput.get().getPath());
+		}
 		int [] hpd = get95PercentBinomialHPD(n);
 
-		PrintStream html = null;
+		ReportWriter html = null;
 		File outdir = null;
 		if (outputInput.get() != null && !outputInput.get().getName().equals("[[none]]")) {
 			String label = htmlTitleLabelInput.get() == null ? "" : htmlTitleLabelInput.get();
@@ -107,7 +138,7 @@ public class CoverageCalculator extends Runnable {
 			}
 
 			Log.warning("Writing to file " + outdir.getPath()+"/coverage.html");
-			html = new PrintStream(outdir.getPath()+"/coverage.html");
+			html = new ReportWriter(new File(outdir.getPath()+"/coverage.html"));
 			html.println("<!doctype html>\n"+
 					"<html>\n"+
 					"<head><title>Coverage calculations" + label + "</title></head>\n"+
@@ -118,9 +149,9 @@ public class CoverageCalculator extends Runnable {
 			html.println("<table>");
 		}
 
-		if (truth.getTrace(0).length - skip != estimated.getTrace(0).length) {
+		if (truth.getSampleCount() - skip != estimated.getSampleCount()) {
 			Log.warning("WARNING: traces are of different lengths: "
-					+ (truth.getTrace(0).length - skip) + "!=" + estimated.getTrace(0).length);
+					+ (truth.getSampleCount() - skip) + "!=" + estimated.getSampleCount());
 		}
 
 
@@ -133,45 +164,75 @@ public class CoverageCalculator extends Runnable {
 		double [] meanESS_ = new double[truth.getLabels().size()];
 		double [] minESS_ = new double[truth.getLabels().size()];
 		boolean [] invalidESSReported_ = new boolean[truth.getLabels().size()];
-		String [] covered_ = new String[truth.getLabels().size()];
-
-		int [] map = guessFileOrder(estimated, skip);
-
-		calcStats(truth, estimated, coverage, meanOver_, meanESS_, minESS_, invalidESSReported_, map, covered_, hpd);
-
-
-		if (outputInput.get() != null) {
-			formatter = new DecimalFormat("#0.####");
-			int k = 0;
-        	for (int i = 0; i < truth.getLabels().size(); i++) {
-    			String label = truth.getLabels().get(i);
-    			try {
-    				if (!(exclude.contains(label) ||
-    						Double.isNaN(truth.getTrace(i+1)[0]) || Double.isNaN(meanESS_[i]))) {
-    					output(i, k, label, truth, estimated, outdir, html,
-    							coverage, meanOver_, meanESS_, minESS_, invalidESSReported_,
-    							map);
-    					k++;
-        			}
-    			} catch (ArrayIndexOutOfBoundsException e) {
-    				// we get here if some item in the true log is not available in the summary log
-    				Log.err("Skipping " + label);
-    			}
-			}
+		LabelStats [] stats_ = new LabelStats[truth.getLabels().size()];
+
+		pool = Executors.newFixedThreadPool(threadsInput.get());
+		try {
+			calcStats(truth, estimated, coverage, meanOver_, meanESS_, minESS_, invalidESSReported_, map, rows, accumulator, stats_, hpd);
+
+
+			if (outputInput.get() != null) {
+				formatter = new DecimalFormat("#0.####");
+				// files for each entry are written in parallel, the html table in label order.
+				// They show the same replicates as the coverage figures, which are all seen so far if incremental
+				File svgdir = outdir;
+				List<Future<String>> cells = new ArrayList<>();
+				for (int i = 0; i < truth.getLabels().size(); i++) {
+					String label = truth.getLabels().get(i);
+					int index = i;
+					try {
+						if (!(exclude.contains(label) || stats_[i] == null ||
+								Double.isNaN(truth.getColumn(i+1).get(0)) || Double.isNaN(meanESS_[i]))) {
+							cells.add(pool.submit(() -> output(index, label, truth, svgdir,
+									coverage, meanOver_, meanESS_, minESS_, invalidESSReported_,
+									stats_)));
+						} else {
+							cells.add(null);
+						}
+					} catch (ArrayIndexOutOfBoundsException e) {
+						Log.err("Skipping " + label);
+						cells.add(null);
+					}
+				}
+				int k = 0;
+				for (int i = 0; i < cells.size(); i++) {
+					if (cells.get(i) == null) {
+						continue;
+					}
+					String cell;
+					try {
+						cell = Tasks.get(cells.get(i));
+					} catch (ArrayIndexOutOfBoundsException e) {
+						// we get here if some item in the true log is not available in the summary log
+						Log.err("Skipping " + truth.getLabels().get(i));
+						continue;
+					}
+					if (k % columnsInput.get() == 0) {
+						html.println("<tr>");
+					}
+					html.print(cell);
+					if ((k+1) % columnsInput.get() == 0) {
+						html.println("</tr>");
+					}
+					k++;
+				}
 
-			html.println("</table>\n" +
-					(showESSInput.get()?
-					"</p><p>* marked ESSs indicate one or more ESS estimates are invalid. Unmarked ESSs indicate all estimates are valid.</p>":"")
-					+ "<p>working directory: " + System.getProperty("user.dir")+ "</p>"
-					+ "</body>\n</html>");
-			html.close();
-
-			try {
-				Application.openUrl("file://" + outdir.getAbsolutePath() + "/coverage.html");
-			} catch (IOException e) {
-				e.printStackTrace();
-				Log.warning("Output in " + outdir.getPath()+"/coverage.html");
+				html.println("</table>\n" +
+						(showESSInput.get()?
+						"</p><p>* marked ESSs indicate one or more ESS estimates are invalid. Unmarked ESSs indicate all estimates are valid.</p>":"")
+						+ "<p>working directory: " + System.getProperty("user.dir")+ "</p>"
+						+ "</body>\n</html>");
+				html.close();
+
+				try {
+					Application.openUrl("file://" + outdir.getAbsolutePath() + "/coverage.html");
+				} catch (IOException e) {
+					e.printStackTrace();
+					Log.warning("Output in " + outdir.getPath()+"/coverage.html");
+				}
 			}
+		} finally {
+			pool.shutdown();
 		}
 
 		Log.warning("Done!");
@@ -214,123 +275,239 @@ public class CoverageCalculator extends Runnable {
 		return hpd;
 	}
 
-	private void calcStats(LogAnalyser truth, LogAnalyser estimated,
+	/** coverage of one entry, calculated independently of all other entries **/
+	private static class LabelStats {
+		// outcome of each replicate, in the order they were added
+		int replicates = 0;
+		int [] ids;
+		CoverageAccumulator.Outcome [] outcomes;
+		BitSet coveredSet = new BitSet();
+		BitSet overSet = new BitSet();
+		double [] ess;
+		StringBuilder missmatchReport = new StringBuilder();
+		List<String> warnings = new ArrayList<>();
+		boolean skipped = false;
+		String error;
+
+		LabelStats(int capacity) {
+			ids = new int[capacity];
+			outcomes = new CoverageAccumulator.Outcome[capacity];
+			ess = new double[capacity];
+		}
+
+		void add(int id, CoverageAccumulator.Outcome outcome) {
+			ids[replicates] = id;
+			outcomes[replicates] = outcome;
+			coveredSet.set(replicates, outcome.covered);
+			overSet.set(replicates, outcome.over);
+			ess[replicates] = outcome.ess;
+			replicates++;
+		}
+
+		int covered() {
+			return coveredSet.cardinality();
+		}
+
+		int meanOver() {
+			return overSet.cardinality();
+		}
+
+		double meanESS() {
+			double meanESS = 0;
+			int ESScount = 0;
+			for (int j = 0; j < replicates; j++) {
+				if (!Double.isNaN(ess[j])) {
+					meanESS += ess[j];
+					ESScount++;
+				}
+			}
+			return meanESS / ESScount;
+		}
+
+		double minESS() {
+			double minESS = Double.POSITIVE_INFINITY;
+			for (int j = 0; j < replicates; j++) {
+				if (!Double.isNaN(ess[j])) {
+					minESS = Math.min(minESS, ess[j]);
+				}
+			}
+			return minESS;
+		}
+
+		boolean invalidESSReported() {
+			for (int j = 0; j < replicates; j++) {
+				if (Double.isNaN(ess[j])) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		String coveredString() {
+			char [] str = new char[replicates];
+			for (int j = 0; j < replicates; j++) {
+				str[j] = coveredSet.get(j) ? '.' : 'x';
+			}
+			return new String(str);
+		}
+
+		String missmatchIDS() {
+			StringBuilder b = new StringBuilder();
+			for (int j = coveredSet.nextClearBit(0); j < replicates; j = coveredSet.nextClearBit(j + 1)) {
+				b.append(ids[j] + " ");
+			}
+			return b.toString();
+		}
+	}
+
+	/**
+	 * @param rows rows of the logAnalyser file to process, which are the new replicates if an accumulator is used
+	 * @param accumulator outcomes of earlier runs, which is updated with those of the rows, or null
+	 */
+	private void calcStats(TraceStore truth, TraceStore estimated,
 			int[] coverage, int[] meanOver_, double[] meanESS_, double[] minESS_, boolean[] invalidESSReported_,
-			int [] map, String[]covered_, int[] hpd) throws IOException {
+			int [] map, int [] rows, CoverageAccumulator accumulator, LabelStats [] stats_, int[] hpd) throws IOException, InterruptedException {
 
-		StringBuilder missmatchReport = new StringBuilder();
+		List<Future<LabelStats>> results = new ArrayList<>();
 		for (int i = 0; i < truth.getLabels().size(); i++) {
 			String label = truth.getLabels().get(i);
-			if (!exclude.contains(label)) {
-			try {
-				Double [] trueValues = truth.getTrace(label);
-				Double [] meanValues = estimated.getTrace(label+".mean");
-				Double [] lows = estimated.getTrace(label+".95%HPDlo");
-				Double [] upps = estimated.getTrace(label+".95%HPDup");
-				Double [] ess = estimated.getTrace(label+".ESS");
-				String coveredString = "", missmatchIDS = "";
-				if (lows == null || upps == null) {
-					Log.warning("Skipping " + label + " due to lack of upper/lower bound data");
-				} else {
-					int covered = 0, meanOver = 0;
-					double minESS = Double.POSITIVE_INFINITY;
-					double meanESS = 0;
-					int ESScount = 0;
-					boolean invalidESSReported = false;
-					switch (getType(label)) {
-					case "b" :
-						// boolean trait, identified by labels starting with "has" or "use" or "is"
-						for (int j = 0; j < meanValues.length && map[j] < trueValues.length; j++) {
-							if (trueValues[map[j]] == 0) {
-								if (meanValues[j] < 0.95) {
-									covered++;
-									coveredString += ".";
-								} else {
-									coveredString += "x";
-									missmatchIDS += map[j] + " ";
-									String file = estimated.getRanges()[1].get((int)(double)estimated.getTrace("filename")[j]);
-									missmatchReport.append(label+ " " + file + " was " + meanValues[j] + " expected >= 0.95\n");
-								}
-							} else {
-								if (meanValues[j] > 0.05) {
-									covered++;
-									coveredString += ".";
-								} else {
-									coveredString += "x";
-									missmatchIDS += map[j] + " ";
-									String file = estimated.getRanges()[1].get((int)(double)estimated.getTrace("filename")[j]);
-									missmatchReport.append(label+ " " + file + " was " + meanValues[j] + " expected <= 0.05\n");
-								}
-							}
-							if (!Double.isNaN(ess[j])) {
-								minESS = Math.min(minESS, ess[j]);
-								meanESS += ess[j];
-								ESScount++;
-							} else {
-								if (!invalidESSReported) {
-									Log.warning("Invalid ESS estimate encountered for " + label);
-									invalidESSReported = true;
-								}
-							}
-						}
-						break;
-					case "d":
-					case "c":
-						// real valued trait
-						for (int j = 0; j < meanValues.length && map[j] < trueValues.length; j++) {
-							if (lows[j]-epsilon <= trueValues[map[j]] && trueValues[map[j]] <= upps[j]+epsilon) {
-								covered++;
-								// System.out.println(lows[j] +"<=" + trueValues[j + skip] +"&&" + trueValues[j + skip] +" <=" + upps[j]);
-								coveredString += ".";
-							} else {
-								coveredString += "x";
-								missmatchIDS += map[j] + " ";
-								String file = estimated.getRanges()[1].get((int)(double)estimated.getTrace("filename")[j]);
-								missmatchReport.append(label+ " " + file + " was [" + lows[j] + "," + upps[j] + "] expected " + trueValues[map[j]]+ "\n");
-							}
-							if (trueValues[map[j]] > meanValues[j]) {
-								meanOver++;
-							}
-							if (!Double.isNaN(ess[j])) {
-								minESS = Math.min(minESS, ess[j]);
-								meanESS += ess[j];
-								ESScount++;
-							} else {
-								if (!invalidESSReported) {
-									Log.warning("Invalid ESS estimate encountered for " + label);
-									invalidESSReported = true;
-								}
-							}
-						}
-						break;
-					default:
-						throw new IllegalArgumentException("type should be b,c or d, not " + getType(label));
-					}
-					meanESS /= ESScount;
-					meanESS_[i] = meanESS;
-					minESS_[i] = minESS;
-					coverage[i] = covered;
-					meanOver_[i] = meanOver;
-					covered_[i] = coveredString;
-					invalidESSReported_[i] = invalidESSReported;
-					Log.info(label + (label.length() < space.length() ? space.substring(label.length()) : " ") +
-							formatter2.format(covered) + (covered < hpd[0] || covered > hpd[1] ? "*":"") + "\t   " +
-							formatter.format(meanESS) + "\t" + formatter.format(minESS) + "\t" + coveredString + " " + missmatchIDS);
+			results.add(exclude.contains(label) ? null : pool.submit(() -> calcStats(label, truth, estimated, map, rows)));
+		}
+
+		// merge in label order, so the report is the same whatever order labels finish in
+		StringBuilder missmatchReport = new StringBuilder();
+		// replicates with an outcome for at least one entry
+		BitSet scored = new BitSet();
+		for (int i = 0; i < results.size(); i++) {
+			if (results.get(i) == null) {
+				continue;
+			}
+			String label = truth.getLabels().get(i);
+			LabelStats stats = Tasks.get(results.get(i));
+			if (accumulator != null && stats.error == null && !stats.skipped) {
+				for (int j = 0; j < stats.replicates; j++) {
+					accumulator.add(label, stats.ids[j], stats.outcomes[j]);
+					scored.set(stats.ids[j]);
 				}
-			} catch (ArrayIndexOutOfBoundsException e) {
-				// we get here if some item in the true log is not available in the summary log
-				Log.err("Skipping " + label);
+				LabelStats all = new LabelStats(accumulator.getOutcomes(label).size());
+				for (Map.Entry<Integer, CoverageAccumulator.Outcome> e : accumulator.getOutcomes(label).entrySet()) {
+					all.add(e.getKey(), e.getValue());
+				}
+				all.missmatchReport = stats.missmatchReport;
+				all.warnings = stats.warnings;
+				stats = all;
+			}
+			for (String warning : stats.warnings) {
+				Log.warning(warning);
 			}
+			if (stats.error != null) {
+				Log.err(stats.error);
+				continue;
 			}
+			if (stats.skipped) {
+				continue;
+			}
+			if (stats.invalidESSReported()) {
+				Log.warning("Invalid ESS estimate encountered for " + label);
+			}
+			int covered = stats.covered();
+			meanESS_[i] = stats.meanESS();
+			minESS_[i] = stats.minESS();
+			coverage[i] = covered;
+			meanOver_[i] = stats.meanOver();
+			stats_[i] = stats;
+			invalidESSReported_[i] = stats.invalidESSReported();
+			missmatchReport.append(stats.missmatchReport);
+			Log.info(label + (label.length() < space.length() ? space.substring(label.length()) : " ") +
+					formatter2.format(covered) + (covered < hpd[0] || covered > hpd[1] ? "*":"") + "\t   " +
+					formatter.format(meanESS_[i]) + "\t" + formatter.format(minESS_[i]) + "\t" + stats.coveredString() + " " + stats.missmatchIDS());
 		}
 		if (verboseInput.get()) {
 			Log.info(missmatchReport.toString());
 		}
+		if (accumulator != null) {
+			for (int id = scored.nextSetBit(0); id >= 0; id = scored.nextSetBit(id + 1)) {
+				accumulator.addReplicate(id);
+			}
+			accumulator.save();
+		}
+	}
+
+	private LabelStats calcStats(String label, TraceStore truth, TraceStore estimated, int [] map, int [] rows) {
+		LabelStats stats = new LabelStats(rows.length);
+		try {
+			double [] trueValues = truth.getTrace(label);
+			double [] meanValues = estimated.getTrace(label+".mean");
+			double [] lows = estimated.getTrace(label+".95%HPDlo");
+			double [] upps = estimated.getTrace(label+".95%HPDup");
+			double [] ess = estimated.getTrace(label+".ESS");
+			double [] medians = estimated.indexOf(label+".median") >= 0 ? estimated.getTrace(label+".median") : null;
+			double [] fileNames = null;
+			if (lows == null || upps == null) {
+				stats.warnings.add("Skipping " + label + " due to lack of upper/lower bound data");
+				stats.skipped = true;
+				return stats;
+			}
+			if (medians == null) {
+				// charts would show no estimates at all otherwise
+				if (!useMeanInput.get()) {
+					stats.warnings.add("No median found for " + label + " -- using the mean for its estimates");
+				}
+				medians = meanValues;
+			}
+			String type = getType(label);
+			if (!type.equals("b") && !type.equals("c") && !type.equals("d")) {
+				throw new IllegalArgumentException("type should be b,c or d, not " + type);
+			}
+			for (int j : rows) {
+				if (!(j < meanValues.length && map[j] < trueValues.length)) {
+					break;
+				}
+				String missmatch = null;
+				boolean over = false;
+				if (type.equals("b")) {
+					// boolean trait, identified by labels starting with "has" or "use" or "is"
+					if (trueValues[map[j]] == 0) {
+						if (meanValues[j] >= 0.95) {
+							missmatch = " was " + meanValues[j] + " expected >= 0.95\n";
+						}
+					} else {
+						if (meanValues[j] <= 0.05) {
+							missmatch = " was " + meanValues[j] + " expected <= 0.05\n";
+						}
+					}
+				} else {
+					// real valued trait
+					if (!(lows[j]-epsilon <= trueValues[map[j]] && trueValues[map[j]] <= upps[j]+epsilon)) {
+						missmatch = " was [" + lows[j] + "," + upps[j] + "] expected " + trueValues[map[j]]+ "\n";
+					}
+					over = trueValues[map[j]] > meanValues[j];
+				}
+				if (missmatch != null) {
+					if (fileNames == null) {
+						fileNames = estimated.getTrace("filename");
+					}
+					String file = estimated.getRanges()[1].get((int) fileNames[j]);
+					stats.missmatchReport.append(label+ " " + file + missmatch);
+				}
+				stats.add(map[j], new CoverageAccumulator.Outcome(missmatch == null, over, ess[j], trueValues[map[j]],
+						meanValues[j], medians[j], lows[j], upps[j]));
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			// we get here if some item in the true log is not available in the summary log
+			stats.error = "Skipping " + label;
+		}
+		return stats;
 	}
 
-	/** maps file names to entries in true-values based on numbering in file name **/
-	private int[] guessFileOrder(LogAnalyser estimated, int skip) throws IOException {
-		int [] map = new int[estimated.getTrace(0).length];
+	/**
+	 * maps file names to entries in true-values based on numbering in file name
+	 * @param accumulator if not null, whether files are numbered from 0 or 1 is taken from it,
+	 * or stored in it the first time, so that replicates keep their number when more files are added.
+	 * Replicates are then identified by their number, so the file names must number them.
+	 */
+	private int[] guessFileOrder(TraceStore estimated, int skip, CoverageAccumulator accumulator) throws IOException {
+		int [] map = new int[estimated.getSampleCount()];
 
 		if (guessFileOrderInput.get() && estimated.getLabels().get(0).equals("filename")) {
 
@@ -358,11 +535,9 @@ public class CoverageCalculator extends Runnable {
 	        for (int d : map) {
 	        	if (done[d]) {
 	        		Log.warning("Duplicate file number found -- aborting file order guessing and assume log and logAnalyser file are in same order");
-	    			for (int i = 0; i < map.length; i++) {
-	    				map[i] = i +  skip;
-	    			}
-	    			return map;
+	        		return sameOrder(map, skip, accumulator);
 	        	}
+	        	done[d] = true;
 	        }
 	        // try to establish whether started at 0 or 1
 	        boolean hasZero = false;
@@ -372,7 +547,18 @@ public class CoverageCalculator extends Runnable {
 	        		break;
 	        	}
 	        }
-	        if (!hasZero) {
+	        int firstFileNumber = hasZero ? 0 : 1;
+	        if (accumulator != null) {
+	        	if (accumulator.getFirstFileNumber() < 0) {
+	        		accumulator.setFirstFileNumber(firstFileNumber);
+	        	} else if (hasZero && accumulator.getFirstFileNumber() == 1) {
+	        		throw new IllegalArgumentException("File number 0 found, but " + incrementalInput.get().getPath() +
+	        				" was started assuming files are numbered from 1 -- remove it to start afresh");
+	        	} else {
+	        		firstFileNumber = accumulator.getFirstFileNumber();
+	        	}
+	        }
+	        if (firstFileNumber == 1) {
 	        	Log.warning("Assume first file starts at number 1");
 				for (int i = 0; i < map.length; i++) {
 					map[i]--;
@@ -384,41 +570,64 @@ public class CoverageCalculator extends Runnable {
 				map[i] +=  skip;
 			}
 		} else {
-			for (int i = 0; i < map.length; i++) {
-				map[i] = i +  skip;
-			}
+			sameOrder(map, skip, accumulator);
 		}
 		return map;
 	}
 
-	private int output(int i, int k, String label, LogAnalyser truth, LogAnalyser estimated, File svgdir, PrintStream html,
+	/** maps entries in the logAnalyser file to entries in true-values in the same order **/
+	private int[] sameOrder(int [] map, int skip, CoverageAccumulator accumulator) {
+		if (accumulator != null) {
+			throw new IllegalArgumentException("The incremental file keeps replicates by number, but the logAnalyser file has no filename column "
+					+ "with a distinct number for every file to take them from");
+		}
+		for (int i = 0; i < map.length; i++) {
+			map[i] = i +  skip;
+		}
+		return map;
+	}
+
+	/** writes the tsv and svg files of an entry, and returns its cell of the html table **/
+	private String output(int i, String label, TraceStore truth, File svgdir,
 			int [] coverage,
 			int [] meanOver_,
 			double [] meanESS_,
 			double [] minESS_,
 			boolean [] invalidESSReported_,
-			int [] map
+			LabelStats [] stats_
 			) throws IOException {
-		Double [] trueValues = truth.getTrace(label);
-		Double [] estimates = estimated.getTrace(label+ (useMeanInput.get()?".mean":".median"));
-		Double [] lows = estimated.getTrace(label+".95%HPDlo");
-		Double [] upps = estimated.getTrace(label+".95%HPDup");
+		// formatters are not thread safe
+		NumberFormat formatter = (NumberFormat) this.formatter.clone();
+		NumberFormat formatter2 = (NumberFormat) this.formatter2.clone();
+		// values by replicate, in the order of the coverage figures
+		LabelStats stats = stats_[i];
+		double [] trueValues = new double[stats.replicates];
+		double [] estimates = new double[stats.replicates];
+		double [] lows = new double[stats.replicates];
+		double [] upps = new double[stats.replicates];
+		for (int j = 0; j < stats.replicates; j++) {
+			CoverageAccumulator.Outcome outcome = stats.outcomes[j];
+			trueValues[j] = outcome.trueValue;
+			estimates[j] = useMeanInput.get() ? outcome.mean : outcome.median;
+			lows[j] = outcome.lower;
+			upps[j] = outcome.upper;
+		}
 		// out.print(trueValues[skip + k] + "\t" + estimates[k] + "\t");
 
 
 
 		String cleanLabel = label.replaceAll(":", "");
 		Log.warning("Writing to file " + svgdir.getPath()+"/" + cleanLabel + ".tsv");
-		PrintStream tsv = new PrintStream(svgdir.getPath() +"/" + cleanLabel + ".tsv");
+		ReportWriter tsv = new ReportWriter(new File(svgdir.getPath() +"/" + cleanLabel + ".tsv"));
 		tsv.println("truth\testimates\t95HPDlow\t95HPDup");
 		for (int j = 0; j < estimates.length; j++) {
-			tsv.println(trueValues[map[j]] + "\t" + estimates[j] + "\t" + lows[j] + "\t" + upps[j]);
+			tsv.print(trueValues[j]).print("\t").print(estimates[j]).print("\t").print(lows[j]).print("\t").print(upps[j]).println();
 		}
 		tsv.close();
 
 
 		Log.warning("Writing to file " + svgdir.getPath()+"/" + cleanLabel + ".svg");
-		PrintStream svg = new PrintStream(svgdir.getPath() +"/" + cleanLabel + ".svg");
+		ReportWriter svg = new ReportWriter(new File(svgdir.getPath() +"/" + cleanLabel + ".svg"));
 		svg.println("<svg class=\"chart\" width=\"1080\" height=\"760\" xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">");
 		// define clip path for graph
 		svg.println("<defs>");
@@ -433,18 +642,18 @@ public class CoverageCalculator extends Runnable {
 		// keep everything sticking out of graph hidden
 		svg.println("<g clip-path=\"url(#cut-off-graph)\">");
 
-		double minx = trueValues[map[0]];
-		double maxx = trueValues[map[0]];
+		double minx = trueValues[0];
+		double maxx = trueValues[0];
 		for (int j = 0; j < estimates.length; j++) {
-			minx = Math.min(minx, trueValues[map[j]]);
-			maxx = Math.max(maxx, trueValues[map[j]]);
+			minx = Math.min(minx, trueValues[j]);
+			maxx = Math.max(maxx, trueValues[j]);
 		}
 		double min = estimates[0];
 		double max = estimates[0];
-		for (String label0 : truth.getLabels()) {
-			if (matches(label0, label)) {
-				min = Math.min(min(estimated, label0), min);
-				max = Math.max(max(estimated, label0), max);
+		for (int k = 0; k < truth.getLabels().size(); k++) {
+			if (matches(truth.getLabels().get(k), label)) {
+				min = Math.min(min(stats_[k]), min);
+				max = Math.max(max(stats_[k]), max);
 			}
 		}
 		min = rounddown(min, max-min);
@@ -469,7 +678,7 @@ public class CoverageCalculator extends Runnable {
 
 			// boolean trait, identified by labels starting with "has" or "use" or "is"
 			int [] bins = new int[20];
-			for (int j = 0; j < estimates.length && map[j] < trueValues.length; j++) {
+			for (int j = 0; j < estimates.length; j++) {
 				bins[(int)((estimates[j] + 0.5/bins.length) * (bins.length - 1))]++;
 			}
 			int y = 0;
@@ -477,7 +686,7 @@ public class CoverageCalculator extends Runnable {
 				double x = 15+j * 1000 / bins.length;
 				double h = 700.0 * bins[j] / estimates.length;
 				String fill = "#5099ff";
-				if (trueValues[map[j]] == 0) {
+				if (trueValues[j] == 0) {
 					if (j < 19) {
 						fill = "#5099ff";
 					} else {
@@ -490,7 +699,8 @@ public class CoverageCalculator extends Runnable {
 						fill = "#fa5753";
 					}
 				}
-				svg.println("<rect x=\""+x+"\" y=\"" + y+ "\" width=\""+(1000/bins.length)+"\" height=\""+h+"\" style=\"fill:" + fill + ";stroke-width:1;stroke:#8b3d37;opacity:0.5\"/>");
+				svg.print("<rect x=\"").print(x).print("\" y=\"").print(y).print("\" width=\"").print(1000/bins.length).print("\" height=\"").print(h)
+					.print("\" style=\"fill:").print(fill).println(";stroke-width:1;stroke:#8b3d37;opacity:0.5\"/>");
 			}
 			svg.println("</g>");
 			svg.println("</g>");
@@ -511,30 +721,32 @@ public class CoverageCalculator extends Runnable {
 
 			// regression line
 			if (showRhoInput.get()) {
-				drawRegressionLine(svg, trueValues, estimates, map, minx, maxx, w);
+				drawRegressionLine(svg, trueValues, estimates, minx, maxx, w);
 			}
 
 			for (int j = 0; j < estimates.length; j++) {
 				double y = lows[j];
 				double h = upps[j] - lows[j];
-				double x = trueValues[map[j]];
-				if (lows[j] - epsilon <= trueValues[map[j]] && trueValues[map[j]] <= upps[j] + epsilon) {
-					svg.println("<rect x=\""+x+"\" y=\"" + y+ "\" width=\""+w+"\" height=\""+h+"\" style=\"fill:#5099ff;stroke-width:"+ w/10+";stroke:#8b3d37;opacity:0.5\"/>");
+				double x = trueValues[j];
+				svg.print("<rect x=\"").print(x).print("\" y=\"").print(y).print("\" width=\"").print(w).print("\" height=\"").print(h);
+				if (lows[j] - epsilon <= trueValues[j] && trueValues[j] <= upps[j] + epsilon) {
+					svg.print("\" style=\"fill:#5099ff;stroke-width:").print(w/10).println(";stroke:#8b3d37;opacity:0.5\"/>");
 				} else {
-					svg.println("<rect x=\""+x+"\" y=\"" + y+ "\" width=\""+w+"\" height=\""+h+"\" style=\"fill:#fa5753;stroke-width:"+ w/10+";stroke:#373d8b;opacity:0.85\"/>");
+					svg.print("\" style=\"fill:#fa5753;stroke-width:").print(w/10).println(";stroke:#373d8b;opacity:0.85\"/>");
 				}
 			}
 			for (int j = 0; j < estimates.length; j++) {
 				double y = estimates[j];
-				double x = trueValues[map[j]] + w/2;
-				svg.println("<circle cx='"+x+"' cy='"+y+"' r=\""+w/3+"\" stroke=\"black\" stroke-width=\""+w/3+"\" fill=\"black\"/>");
+				double x = trueValues[j] + w/2;
+				svg.print("<circle cx='").print(x).print("' cy='").print(y).print("' r=\"").print(w/3)
+					.print("\" stroke=\"black\" stroke-width=\"").print(w/3).println("\" fill=\"black\"/>");
 			}
 			svg.println("</g>");
 			svg.println("</g>");
-			String fmax = format(max);
-			String fmin = format(min);
-			String fmaxx = format(maxx);
-			String fminx = format(minx);
+			String fmax = format(formatter, max);
+			String fmin = format(formatter, min);
+			String fmaxx = format(formatter, maxx);
+			String fminx = format(formatter, minx);
 			svg.println("<text x='0' y='0' transform='rotate(90 0 0) translate(0,-1025)' style='font-size:46px'>" + fmax + "</text>");
 			svg.println("<text x='0' y='0' transform='rotate(90 0 0) translate(" + (700 - 20*fmin.length()) + ",-1025)' style='font-size:46px'>" + fmin + "</text>");
 			svg.println("<text x='10' y='735' style='font-size:46px'>" + fminx + "</text>");
@@ -547,44 +759,30 @@ public class CoverageCalculator extends Runnable {
 		svg.println("</svg>");
 		svg.close();
 
-		if (k % columnsInput.get() == 0) {
-			html.println("<tr>");
-		}
-		html.println("<td>");
-		html.println("<h3>" + label + "</h3>");
-		html.println("<p>Coverage: " + coverage[i] +
+		StringBuilder html = new StringBuilder();
+		html.append("<td>\n");
+		html.append("<h3>" + label + "</h3>\n");
+		html.append("<p>Coverage: " + coverage[i] +
 				(showMeanInput.get()? (useMeanInput.get()? " Mean: ": " Median: ")  + meanOver_[i]: "") +
 				(showESSInput.get()?
 				" ESS (mean/min): " + formatter2.format(meanESS_[i]) +
 				"/" + formatter2.format(minESS_[i]) + (invalidESSReported_[i] ? "*" : ""):"")
 				+ (showRhoInput.get()?
-				", y = " + corr(trueValues, estimates, map) + ")" : "")
-				+ "</p><p>");
-		html.println("<img width=\"350px\" src=\"" + cleanLabel + ".svg\">");
-		html.println("</td>");
-		if ((k+1) % columnsInput.get() == 0) {
-			html.println("</tr>");
-		}
-		k++;
-		return k;
+				", y = " + corr(trueValues, estimates) + ")" : "")
+				+ "</p><p>\n");
+		html.append("<img width=\"350px\" src=\"" + cleanLabel + ".svg\">\n");
+		html.append("</td>\n");
+		return html.toString();
 	}
 
 
-	private String format(double value) {
+	private String format(NumberFormat formatter, double value) {
 		String str = formatter.format(value);
 		return str;
 	}
 
-	private void drawRegressionLine(PrintStream svg, Double[] trueValues, Double[] estimates, int[] map, double minx, double maxx, double w) {
-		int n = estimates.length;
-		double [] x = new double[n];
-		double [] y = new double[n];
-		for (int i = 0; i < n; i++) {
-			x[i] = trueValues[map[i]];
-			y[i] = estimates[i];
-		}
-
-		Regression r2 = new Regression(x, y);
+	private void drawRegressionLine(ReportWriter svg, double[] trueValues, double[] estimates, double minx, double maxx, double w) throws IOException {
+		Regression r2 = new Regression(trueValues, estimates);
 		double intercept = r2.getIntercept();
 		double gradient = r2.getGradient();
 		double y1 = intercept + minx * gradient;
@@ -594,44 +792,26 @@ public class CoverageCalculator extends Runnable {
 
 	}
 
-	private String corr(Double[] trueValues, Double[] estimates, int[] map) {
-		int n = estimates.length;
-		double [] x = new double[n];
-		double [] y = new double[n];
-		for (int i = 0; i < n; i++) {
-			x[i] = trueValues[map[i]];
-			y[i] = estimates[i];
-		}
-
-		Regression r2 = new Regression(x, y);
+	private String corr(double[] trueValues, double[] estimates) {
+		Regression r2 = new Regression(trueValues, estimates);
 		String str = r2.toString();
 		return " " + str;
 	}
 
-	private double max(LogAnalyser estimated, String label0) {
-		try {
-			Double [] upps = estimated.getTrace(label0+".95%HPDup");
-			double max = upps[0];
-			for (double d : upps) {
-				max = Math.max(max, d);
-			}
-			return max;
-		} catch (ArrayIndexOutOfBoundsException e) {
-			return Double.NEGATIVE_INFINITY;
+	private double max(LabelStats stats) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (int j = 0; stats != null && j < stats.replicates; j++) {
+			max = Math.max(max, stats.outcomes[j].upper);
 		}
+		return max;
 	}
 
-	private double min(LogAnalyser estimated, String label0) {
-		try {
-			Double [] lows = estimated.getTrace(label0+".95%HPDlo");
-			double min = lows[0];
-			for (double d : lows) {
-				min = Math.min(min, d);
-			}
-			return min;
-		} catch (ArrayIndexOutOfBoundsException e) {
-			return Double.POSITIVE_INFINITY;
+	private double min(LabelStats stats) {
+		double min = Double.POSITIVE_INFINITY;
+		for (int j = 0; stats != null && j < stats.replicates; j++) {
+			min = Math.min(min, stats.outcomes[j].lower);
 		}
+		return min;
 	}
 
 	private boolean matches(String label0, String label) {
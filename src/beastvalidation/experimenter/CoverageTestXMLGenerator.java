@@ -15,7 +15,7 @@ import beast.base.evolution.branchratemodel.StrictClockModel;
 import beast.base.evolution.sitemodel.SiteModel;
 import beast.base.evolution.substitutionmodel.Frequencies;
 import beast.base.evolution.substitutionmodel.HKY;
-import beastfx.app.seqgen.MergeDataWith;
+import beast.base.util.Randomizer;
 import beastfx.app.seqgen.SequenceSimulator;
 import beastfx.app.tools.Application;
 import beastfx.app.tools.LogAnalyser;
@@ -27,8 +27,30 @@ import beastvalidation.util.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 //import beagle.BeagleFlag;
 
@@ -51,6 +73,12 @@ public class CoverageTestXMLGenerator extends beast.base.inference.Runnable {
 			"number of site to be generted in alignment", 1000);
 	final public Input<Boolean> useGammaInput = new Input<>("useGamma", "use gamma rate heterogeneity", true);
 	final public Input<Boolean> useClockInput = new Input<>("useClock", "use strict clock rate from file (defaults to 1)", true);
+	final public Input<Integer> threadsInput = new Input<>("threads", "number of replicates processed at the same time. "
+			+ "Every replicate simulates from its own seed, drawn in order from the seed of the run, so alignments do not depend on this",
+			Runtime.getRuntime().availableProcessors());
+
+	// BEAST has one random number generator, so replicates take turns to seed it and simulate
+	private static final Object RANDOMIZER_LOCK = new Object();
 
 	int N = 100;
 	List<Tree> trees;
@@ -63,7 +91,8 @@ public class CoverageTestXMLGenerator extends beast.base.inference.Runnable {
 	public void initAndValidate() {
 	}
 
-	void process() throws IllegalArgumentException, IllegalAccessException, IOException, XMLParserException {
+	void process() throws IllegalArgumentException, IllegalAccessException, IOException, XMLParserException, InterruptedException,
+			SAXException, ParserConfigurationException {
 		String wdir = workingDirInput.get().getAbsolutePath() + "/";
 		String dir = wdir + outDirInput.get();
 		String analysisXML = wdir + xmlFileInput.get().getAbsolutePath();
@@ -81,53 +110,140 @@ public class CoverageTestXMLGenerator extends beast.base.inference.Runnable {
 		}
 		System.err.print("Processing " + dir);
 
+		// the template is parsed once, and every replicate merges its alignment into a copy of it
+		Document template = parseTemplate(new File(analysisXML));
+		long [] seeds = new long[N];
 		for (int i = 0; i < N; i++) {
+			seeds[i] = Randomizer.nextLong();
+		}
 
-			// set up model to draw samples from
-			String[] taxa = trees.get(0).getTaxaNames();
-			List<Sequence> seqs = new ArrayList<>();
-			for (int j = 0; j < taxa.length; j++) {
-				Sequence A = new Sequence();
-				A.initByName("taxon", taxa[j], "value", "?");
-				seqs.add(A);
+		// replicates are independent, so they are processed in parallel
+		String[] taxa = trees.get(0).getTaxaNames();
+		ExecutorService pool = Executors.newFixedThreadPool(threadsInput.get());
+		try {
+			List<Future<Object>> replicates = new ArrayList<>();
+			for (int i = 0; i < N; i++) {
+				int replicate = i;
+				replicates.add(pool.submit(() -> {
+					simulate(replicate, taxa, template, seeds[replicate], dir);
+					return null;
+				}));
 			}
-
-			Alignment data = new Alignment();
-			data.initByName("sequence", seqs);
-
-			Tree tree = trees.get(i);
-
-			RealParameter freqs = new RealParameter(f[0][i] + " " + f[1][i] + " " + f[2][i] + " " + f[3][i]);
-			Frequencies f = new Frequencies();
-			f.initByName("frequencies", freqs);
-
-			HKY hky = new beast.base.evolution.substitutionmodel.HKY();
-			hky.initByName("frequencies", f, "kappa", kappa[i] + "");
-
-			StrictClockModel clockmodel = new StrictClockModel();
-			clockmodel.initByName("clock.rate", clockRate[i] + "");
-
-			// change gammaCategoryCount=1 for generating without gamma rate
-			// categories
-			int gcc = (useGammaInput.get() ? 4 : 1);
-			RealParameter p = new RealParameter("0.0");
-			SiteModel sitemodel = new SiteModel();
-			sitemodel.initByName("gammaCategoryCount", gcc, "substModel", hky, "shape", "" + shapes[i],
-					"proportionInvariant", p);
-			MergeDataWith mergewith = new MergeDataWith();
-			mergewith.initByName("template", analysisXML, "output", dir + "/analysis-out" + i + ".xml");
-			SequenceSimulator sim = new SequenceSimulator();
-			sim.initByName("data", data, "tree", tree, "sequencelength", siteCountInput.get(), "outputFileName",
-					"gammaShapeSequence.xml", "siteModel", sitemodel, "branchRateModel", clockmodel,
-					"merge", mergewith);
-			// produce gammaShapeSequence.xml and merge with analysis.xml to get
-			// analysis-out.xml
-			sim.run();
-			System.err.print('.');
+			for (Future<Object> replicate : replicates) {
+				Tasks.get(replicate);
+			}
+		} finally {
+			pool.shutdown();
 		}
 		System.err.println();
 	}
 
+	/** simulates an alignment for replicate i and merges it with the template into analysis-out<i>.xml **/
+	private void simulate(int i, String[] taxa, Document template, long seed, String dir) throws Exception {
+		// set up model to draw samples from
+		List<Sequence> seqs = new ArrayList<>();
+		for (int j = 0; j < taxa.length; j++) {
+			Sequence A = new Sequence();
+			A.initByName("taxon", taxa[j], "value", "?");
+			seqs.add(A);
+		}
+
+		Alignment data = new Alignment();
+		data.initByName("sequence", seqs);
+
+		Tree tree = trees.get(i);
+
+		RealParameter freqs = new RealParameter(f[0][i] + " " + f[1][i] + " " + f[2][i] + " " + f[3][i]);
+		Frequencies f = new Frequencies();
+		f.initByName("frequencies", freqs);
+
+		HKY hky = new beast.base.evolution.substitutionmodel.HKY();
+		hky.initByName("frequencies", f, "kappa", kappa[i] + "");
+
+		StrictClockModel clockmodel = new StrictClockModel();
+		clockmodel.initByName("clock.rate", clockRate[i] + "");
+
+		// change gammaCategoryCount=1 for generating without gamma rate
+		// categories
+		int gcc = (useGammaInput.get() ? 4 : 1);
+		RealParameter p = new RealParameter("0.0");
+		SiteModel sitemodel = new SiteModel();
+		sitemodel.initByName("gammaCategoryCount", gcc, "substModel", hky, "shape", "" + shapes[i],
+				"proportionInvariant", p);
+		SequenceSimulator sim = new SequenceSimulator();
+		sim.initByName("data", data, "tree", tree, "sequencelength", siteCountInput.get(),
+				"siteModel", sitemodel, "branchRateModel", clockmodel);
+		Alignment alignment;
+		synchronized (RANDOMIZER_LOCK) {
+			Randomizer.setSeed(seed);
+			alignment = sim.simulate();
+		}
+
+		// merge with analysis.xml to get analysis-out.xml
+		Document doc;
+		synchronized (template) {
+			// reading a DOM is not guaranteed to be thread safe either
+			doc = (Document) template.cloneNode(true);
+		}
+		merge(doc, alignment);
+		write(doc, new File(dir + "/analysis-out" + i + ".xml"));
+		System.err.print('.');
+	}
+
+	/** parses the template, with $(n) replaced as MergeDataWith does for the only iteration of a simulator **/
+	static Document parseTemplate(File file) throws IOException, SAXException, ParserConfigurationException {
+		String xml = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+		xml = xml.replaceAll("\\$\\(n\\)", "0");
+		return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+	}
+
+	/**
+	 * Gives every sequence in the template the simulated data of its taxon, keeping the rest of its element.
+	 * Every taxon of the template needs to be simulated, and every simulated taxon needs a sequence in the template.
+	 */
+	public static void merge(Document doc, Alignment alignment) {
+		Map<String, String> values = new LinkedHashMap<>();
+		for (Sequence sequence : alignment.sequenceInput.get()) {
+			values.put(sequence.taxonInput.get(), sequence.dataInput.get());
+		}
+		NodeList sequences = doc.getElementsByTagName("sequence");
+		List<String> merged = new ArrayList<>();
+		for (int i = 0; i < sequences.getLength(); i++) {
+			Element sequence = (Element) sequences.item(i);
+			String taxon = sequence.getAttribute("taxon");
+			if (taxon.startsWith("@")) {
+				taxon = taxon.substring(1);
+			}
+			String value = values.get(taxon);
+			if (value == null) {
+				throw new IllegalArgumentException("Taxon " + taxon + " of the template is not in the simulated alignment");
+			}
+			// the data may be given as text rather than as value attribute
+			for (Node child = sequence.getFirstChild(); child != null; ) {
+				Node next = child.getNextSibling();
+				if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+					sequence.removeChild(child);
+				}
+				child = next;
+			}
+			sequence.setAttribute("value", value);
+			merged.add(taxon);
+		}
+		for (String taxon : values.keySet()) {
+			if (!merged.contains(taxon)) {
+				throw new IllegalArgumentException("Taxon " + taxon + " has no sequence in the template");
+			}
+		}
+	}
+
+	private static void write(Document doc, File file) throws IOException {
+		try {
+			TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(file));
+		} catch (TransformerException e) {
+			throw new IOException("Could not write " + file.getPath() + ": " + e.getMessage(), e);
+		}
+	}
+
 	public void run() throws Exception {
 		String wdir = workingDirInput.get().getAbsolutePath() + "/";
 		String traceFile = wdir + logFileInput.get().getPath();
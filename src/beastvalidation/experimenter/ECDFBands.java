@@ -0,0 +1,313 @@
+package beastvalidation.experimenter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.distribution.BinomialDistributionImpl;
+
+import beast.base.core.Log;
+import beast.base.util.Randomizer;
+
+/**
+ * Confidence bands for the ECDF of ranks in simulation based calibration. With N replicates spread uniformly
+ * over some number of bins, the number of replicates in the first k+1 bins has a binomial distribution with
+ * N trials and probability (k+1)/bins, so pointwise bands follow from its quantiles. By default these are
+ * widened into simultaneous bands, which contain the whole ECDF with the given confidence, as in Sailynoja,
+ * Burkner and Vehtari (2022): the pointwise level is raised until the probability that every point is inside
+ * its band, calculated exactly from the conditional binomial distributions of the counts, reaches the confidence.
+ * Pointwise bands can also be simulated as SBCAnalyser used to do. Bands are kept in files in the temporary
+ * directory, so they are only calculated once for every combination of N, bins and confidence.
+ *
+ * Bounds are returned as two arrays of bins + 1 fractions of N, lower bounds first, where entry k+1
+ * is the bound for the first k+1 bins and entry 0 is 0.
+ */
+public class ECDFBands {
+	final static int MAGIC = 0x45434446;
+	final static int VERSION = 2;
+
+	private ECDFBands() {
+	}
+
+	/**
+	 * @param confidence probability that the ECDF is inside the band everywhere, or at any one point if simulated
+	 * @param trials number of simulated experiments for pointwise bands, or 0 for simultaneous bands from the binomial distribution
+	 */
+	public static double [][] getBounds(int N, int bins, double confidence, int trials, int threads) throws IOException, InterruptedException {
+		return getBounds(N, bins, confidence, trials, threads, new File(System.getProperty("java.io.tmpdir")));
+	}
+
+	/** as getBounds(N, bins, confidence, trials, threads), with the bands kept in cacheDir **/
+	public static double [][] getBounds(int N, int bins, double confidence, int trials, int threads, File cacheDir) throws IOException, InterruptedException {
+		if (N < 1 || bins < 1) {
+			throw new IllegalArgumentException("Need at least one replicate and one bin for ECDF bands");
+		}
+		if (confidence <= 0 || confidence >= 1) {
+			throw new IllegalArgumentException("Confidence of ECDF bands should be between 0 and 1, not " + confidence);
+		}
+		File cache = getCacheFile(N, bins, confidence, trials, cacheDir);
+		double [][] bounds = read(cache, N, bins, confidence);
+		if (bounds == null) {
+			if (trials > 0) {
+				Log.warning("Simulating ECDF bands for " + N + " replicates in " + bins + " bins");
+				bounds = simulate(trials, N, bins, confidence, threads);
+			} else {
+				bounds = calcSimultaneousBounds(N, bins, confidence);
+			}
+			write(cache, N, bins, confidence, bounds);
+		}
+		return bounds;
+	}
+
+	/** bands containing the ECDF at any one point with probability confidence **/
+	public static double [][] calcPointwiseBounds(int N, int bins, double confidence) {
+		return toFractions(calcPointwiseCounts(N, bins, confidence), N);
+	}
+
+	/** bands containing the whole ECDF with probability confidence **/
+	public static double [][] calcSimultaneousBounds(int N, int bins, double confidence) {
+		// bisect on the log of the probability of being outside the pointwise bands, which only grows them as it falls
+		double outside = Math.log(1 - confidence);
+		double inside = Math.log(1e-12);
+		int [][] counts = calcPointwiseCounts(N, bins, 1 - Math.exp(inside));
+		for (int i = 0; i < 30; i++) {
+			double mid = (outside + inside) / 2;
+			int [][] midCounts = calcPointwiseCounts(N, bins, 1 - Math.exp(mid));
+			if (probabilityInside(N, bins, midCounts) >= confidence) {
+				inside = mid;
+				counts = midCounts;
+			} else {
+				outside = mid;
+			}
+		}
+		return toFractions(counts, N);
+	}
+
+	/** lower and upper bounds on the number of replicates in the first k bins, at entry k **/
+	static int [][] calcPointwiseCounts(int N, int bins, double confidence) {
+		int [][] counts = new int[2][bins + 1];
+		for (int k = 0; k < bins - 1; k++) {
+			BinomialDistributionImpl binom = new BinomialDistributionImpl(N, (k+1.0) / bins);
+			counts[0][k+1] = quantile(binom, N, (1 - confidence) / 2);
+			counts[1][k+1] = quantile(binom, N, (1 + confidence) / 2);
+		}
+		// all replicates are in the first `bins` bins
+		counts[0][bins] = N;
+		counts[1][bins] = N;
+		return counts;
+	}
+
+	/**
+	 * Probability that the number of replicates in the first k bins is within the bounds for every k. Given that
+	 * there are c replicates in the first k bins, the number in bin k+1 is binomial with N-c trials and probability
+	 * 1/(bins-k), so the distribution of the count inside the bounds is carried from one bin to the next.
+	 */
+	static double probabilityInside(int N, int bins, int [][] counts) {
+		double [] logFactorial = new double[N + 1];
+		for (int n = 2; n <= N; n++) {
+			logFactorial[n] = logFactorial[n - 1] + Math.log(n);
+		}
+		// probabilities of counts from low to high, the count in zero bins being 0
+		double [] p = new double[]{1};
+		int low = 0, high = 0;
+		for (int k = 1; k < bins; k++) {
+			double q = 1.0 / (bins - k + 1);
+			int newLow = counts[0][k], newHigh = counts[1][k];
+			double [] newP = new double[newHigh - newLow + 1];
+			for (int c = low; c <= high; c++) {
+				if (p[c - low] == 0) {
+					continue;
+				}
+				int n = N - c;
+				for (int c2 = Math.max(c, newLow); c2 <= newHigh; c2++) {
+					int m = c2 - c;
+					double logP = logFactorial[n] - logFactorial[m] - logFactorial[n - m] +
+							(m > 0 ? m * Math.log(q) : 0) + (n - m > 0 ? (n - m) * Math.log1p(-q) : 0);
+					newP[c2 - newLow] += p[c - low] * Math.exp(logP);
+				}
+			}
+			p = newP;
+			low = newLow;
+			high = newHigh;
+		}
+		double sum = 0;
+		for (double d : p) {
+			sum += d;
+		}
+		return sum;
+	}
+
+	private static double [][] toFractions(int [][] counts, int N) {
+		double [][] bounds = new double[2][counts[0].length];
+		for (int j = 0; j < 2; j++) {
+			for (int k = 0; k < counts[j].length; k++) {
+				bounds[j][k] = (double) counts[j][k] / N;
+			}
+		}
+		return bounds;
+	}
+
+	/** smallest count c with P(X <= c) > q, which is where a sorted sample of X is at a fraction q of its length **/
+	private static int quantile(BinomialDistributionImpl binom, int N, double q) {
+		int low = 0;
+		int high = N;
+		try {
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (binom.cumulativeProbability(mid) > q) {
+					high = mid;
+				} else {
+					low = mid + 1;
+				}
+			}
+		} catch (MathException e) {
+			throw new RuntimeException(e);
+		}
+		return low;
+	}
+
+	/**
+	 * Runs a number of trials spread over threads, each thread tallying cumulative bin counts
+	 * in its own histogram, and takes symmetric quantiles of the merged histograms, which gives pointwise bands.
+	 * Simulated bounds are smoothed over neighbouring bins to get rid of noise.
+	 */
+	static double [][] simulate(int trials, int N, int bins, double confidence, int threads) throws InterruptedException {
+		double deltaBin = (double)1.0/(double)bins;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<int[][]>> results = new ArrayList<>();
+		try {
+			for (int t = 0; t < threads; t++) {
+				int myTrials = trials / threads + (t < trials % threads ? 1 : 0);
+				SplittableRandom random = new SplittableRandom(Randomizer.nextLong());
+				results.add(pool.submit(() -> {
+					// histogram[k][c] = number of trials with c replicates in the first k+1 bins
+					int [][] histogram = new int[bins][N + 1];
+					int [] count = new int[bins];
+					for (int i = 0; i < myTrials; i++) {
+						Arrays.fill(count, 0);
+						for (int j = 0; j < N; j++) {
+							int bin = (int)(random.nextDouble() / deltaBin);
+							count[Math.min(bin, bins - 1)]++;
+						}
+						int sum = 0;
+						for (int k = 0; k < bins; k++) {
+							sum += count[k];
+							histogram[k][sum]++;
+						}
+					}
+					return histogram;
+				}));
+			}
+
+			int [][] histogram = new int[bins][N + 1];
+			for (Future<int[][]> result : results) {
+				int [][] h = result.get();
+				for (int k = 0; k < bins; k++) {
+					for (int c = 0; c <= N; c++) {
+						histogram[k][c] += h[k][c];
+					}
+				}
+			}
+
+			double [][] bounds = new double[2][bins + 1];
+			for (int k = 0; k < bins; k++) {
+				bounds[0][k+1] = (double) sortedEntry(histogram[k], (int)((1 - confidence) / 2 * trials)) / N;
+				bounds[1][k+1] = (double) sortedEntry(histogram[k], (int)((1 + confidence) / 2 * trials)) / N;
+			}
+			smooth(bounds[0], bins);
+			smooth(bounds[1], bins);
+			return bounds;
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	// entry at position i of the sorted values tallied in histogram
+	private static int sortedEntry(int [] histogram, int i) {
+		int seen = 0;
+		for (int c = 0; c < histogram.length; c++) {
+			seen += histogram[c];
+			if (seen > i) {
+				return c;
+			}
+		}
+		return histogram.length - 1;
+	}
+
+	private static void smooth(double [] bound, int bins) {
+		double [] tmp = bound.clone();
+		int w = 3;
+		for (int k = w; k < bins-w; k++) {
+			double sum = 0;
+			for (int i = -w; i <= w; i++) {
+				sum += tmp[k + i];
+			}
+			bound[k] = sum / (2*w+1);
+		}
+	}
+
+	static File getCacheFile(int N, int bins, double confidence, int trials, File cacheDir) {
+		String name = "ecdf-bands-" + N + "-" + bins + "-" + confidence + (trials > 0 ? "-simulated" + trials : "") + ".bin";
+		return new File(cacheDir, name);
+	}
+
+	/** bounds in the cache file, or null if there is none for these settings **/
+	private static double [][] read(File cache, int N, int bins, double confidence) {
+		if (!cache.exists()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cache)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION ||
+					in.readInt() != N || in.readInt() != bins || in.readDouble() != confidence) {
+				return null;
+			}
+			double [][] bounds = new double[2][bins + 1];
+			for (double [] bound : bounds) {
+				for (int k = 0; k <= bins; k++) {
+					bound[k] = in.readDouble();
+				}
+			}
+			return bounds;
+		} catch (IOException e) {
+			// an unreadable cache is rebuilt
+			Log.warning("Ignoring ECDF band cache " + cache.getPath() + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/** written under another name first, so a partial file is never read **/
+	private static void write(File cache, int N, int bins, double confidence, double [][] bounds) throws IOException {
+		File tmp = File.createTempFile(cache.getName(), ".tmp", cache.getParentFile());
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(N);
+			out.writeInt(bins);
+			out.writeDouble(confidence);
+			for (double [] bound : bounds) {
+				for (double d : bound) {
+					out.writeDouble(d);
+				}
+			}
+		}
+		Files.move(tmp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+}
@@ -3,9 +3,16 @@ package beastvalidation.experimenter;
 import java.io.File;
 import java.io.PrintStream;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import beastfx.app.tools.Application;
 import beastfx.app.util.OutFile;
@@ -18,7 +25,6 @@ import beast.base.core.Log;
 import beast.base.evolution.tree.Node;
 import beast.base.evolution.tree.Tree;
 import beast.base.util.HeapSort;
-import beast.base.parser.NexusParser;
 
 @Description("Compare meta data from a tree with meta data of an MCC tree")
 public class MCCTreeComparator extends Runnable {
@@ -27,6 +33,7 @@ public class MCCTreeComparator extends Runnable {
 	final public Input<Integer> fromInput = new Input<>("from", "start value to loop over", 0);
 	final public Input<Integer> toInput = new Input<>("to", "end value (inclusive) to loop over. If less than 0, no loop is performed. If more than 0, the part $(n) in the file path will be replaced by an integer, starting at "
 			+ "'from' and ending in 'to'", 99);
+	final public Input<Integer> threadsInput = new Input<>("threads", "number of tree pairs compared at the same time", Runtime.getRuntime().availableProcessors());
 
 	final public Input<OutFile> outputInput = new Input<>("out", "output file, or stdout if not specified",
 			new OutFile("[[none]]"));
@@ -46,18 +53,27 @@ public class MCCTreeComparator extends Runnable {
 			Log.warning("Writing to file " + str);
 			out = new PrintStream(str);
 		}
-		map = new LinkedHashMap<>();
-		map.put("posterior", new MatchCounter("posterior"));
+		map = newMap();
 
 		if (toInput.get() < 0 || fromInput.get() < 0) {
-			process(src1Input.get(), src2Input.get());
+			merge(process(src1Input.get(), src2Input.get()));
 		} else {
+			// pairs are compared in parallel, each with its own counters, which are merged in order
 			String tree1path = src1Input.get().getPath();
 			String tree2path = src2Input.get().getPath();
-			for (int i = fromInput.get(); i <= toInput.get(); i++) {
-				File f1 = new File(tree1path.replaceAll("\\$\\(n\\)", i+""));
-				File f2 = new File(tree2path.replaceAll("\\$\\(n\\)", i+""));
-				process(f1, f2);
+			ExecutorService pool = Executors.newFixedThreadPool(threadsInput.get());
+			try {
+				List<Future<Map<String, MatchCounter>>> results = new ArrayList<>();
+				for (int i = fromInput.get(); i <= toInput.get(); i++) {
+					File f1 = new File(tree1path.replaceAll("\\$\\(n\\)", i+""));
+					File f2 = new File(tree2path.replaceAll("\\$\\(n\\)", i+""));
+					results.add(pool.submit(() -> process(f1, f2)));
+				}
+				for (Future<Map<String, MatchCounter>> result : results) {
+					merge(Tasks.get(result));
+				}
+			} finally {
+				pool.shutdown();
 			}
 		}
 
@@ -99,19 +115,21 @@ public class MCCTreeComparator extends Runnable {
 
 	}
 
-	private void process(File tree1, File tree2) throws Exception {
-		
-		NexusParser p = new NexusParser();
-		p.parseFile(tree1);
-		if (p.trees.size() != 1) {
-			throw new IllegalArgumentException("Expected only 1 tree in file " + tree1.getPath());
-		}
-		Tree tree = p.trees.get(0);
-		p.parseFile(tree2);
-		if (p.trees.size() != 1) {
-			throw new IllegalArgumentException("Expected only 1 tree in file " + tree2.getPath());
+	private Map<String, MatchCounter> newMap() {
+		Map<String, MatchCounter> map = new LinkedHashMap<>();
+		map.put("posterior", new MatchCounter("posterior"));
+		return map;
+	}
+
+	private void merge(Map<String, MatchCounter> counters) {
+		for (MatchCounter counter : counters.values()) {
+			map.computeIfAbsent(counter.trait, MatchCounter::new).add(counter);
 		}
-		Tree mcc = p.trees.get(0);
+	}
+
+	private Map<String, MatchCounter> process(File tree1, File tree2) throws Exception {
+		Tree tree = NexusTreeReader.read(tree1);
+		Tree mcc = NexusTreeReader.read(tree2);
 		
 		// make sure topologies match
 		tree.getRoot().sort();
@@ -122,10 +140,59 @@ public class MCCTreeComparator extends Runnable {
 			throw new IllegalArgumentException("topologies do not match");
 		}
 		
-		traverse(tree.getRoot(), mcc.getRoot());
+		MetaDataSlot [] slots = getSlots(tree);
+		int [][] counts = new int[slots.length][4];
+		traverse(tree.getRoot(), mcc.getRoot(), slots, counts);
+
+		Map<String, MatchCounter> map = newMap();
+		for (int k = 0; k < slots.length; k++) {
+			MatchCounter counter = new MatchCounter(slots[k].name);
+			counter.matchCount = counts[k][MATCH];
+			counter.missMatchCount = counts[k][MISS];
+			counter.leafMatchCount = counts[k][LEAF_MATCH];
+			counter.leafMissMatchCount = counts[k][LEAF_MISS];
+			map.computeIfAbsent(slots[k].name, MatchCounter::new).add(counter);
+		}
+		return map;
+	}
+
+	/** posterior of the MCC tree in slot 0, followed by heights and all other metadata found in the tree **/
+	private MetaDataSlot [] getSlots(Tree tree) {
+		Set<String> names = new LinkedHashSet<>();
+		names.add("height");
+		for (Node node : tree.getNodesAsArray()) {
+			names.addAll(node.getMetaDataNames());
+		}
+		MetaDataSlot [] slots = new MetaDataSlot[names.size() + 1];
+		slots[0] = new MetaDataSlot("posterior");
+		int k = 1;
+		for (String name : names) {
+			slots[k++] = new MetaDataSlot(name);
+		}
+		return slots;
 	}
 
 	Map<String, MatchCounter> map;
+
+	// columns of the counts of a slot
+	final static int MATCH = 0, MISS = 1, LEAF_MATCH = 2, LEAF_MISS = 3;
+
+	/** metadata name with the keys of its summaries in the MCC tree, built once per tree **/
+	static class MetaDataSlot {
+		final String name;
+		final String hpdKey;
+		final String setKey;
+		final String setProbKey;
+		final boolean isHeight;
+
+		MetaDataSlot(String name) {
+			this.name = name;
+			hpdKey = name + "_95%_HPD";
+			setKey = name + ".set";
+			setProbKey = name + ".set.prob";
+			isHeight = name.equals("height");
+		}
+	}
 	
 	class MatchCounter {
 		String trait;
@@ -141,87 +208,72 @@ public class MCCTreeComparator extends Runnable {
 			leafMatchCount = 0;
 			leafMissMatchCount = 0;
 		}
+
+		void add(MatchCounter other) {
+			matchCount += other.matchCount;
+			missMatchCount += other.missMatchCount;
+			leafMatchCount += other.leafMatchCount;
+			leafMissMatchCount += other.leafMissMatchCount;
+		}
 	}
 	
 	
-	private void traverse(Node node, Node nodeMCC) {
-		node.setMetaData("height", node.getHeight());
-		
+	private void traverse(Node node, Node nodeMCC, MetaDataSlot [] slots, int [][] counts) {
+		boolean isLeaf = node.isLeaf();
+
 		// deal with posterior
 		Object posterior = nodeMCC.getMetaData("posterior");
 		if (posterior != null) {
-			MatchCounter matchCounter = map.get("posterior");
-			Double value = (Double) posterior;
-			if (value >= 0.05) {
-				matchCounter.matchCount++;
-				if (node.isLeaf()) {
-					matchCounter.leafMatchCount++;
-				}
-			} else {
-				matchCounter.missMatchCount++;
-				if (node.isLeaf()) {
-					matchCounter.leafMissMatchCount++;
-				}
-			}
+			count(counts[0], (Double) posterior >= 0.05, isLeaf);
 		}
-		
+
 		// deal with other metadata
-		for (String metadata : node.getMetaDataNames()) {
-			if (!map.containsKey(metadata)) {
-				map.put(metadata, new MatchCounter(metadata));
+		for (int k = 1; k < slots.length; k++) {
+			MetaDataSlot slot = slots[k];
+			if (slot.isHeight && isLeaf) {
+				continue;
 			}
-			MatchCounter matchCounter = map.get(metadata);
-			if (!metadata.equals("height") || !node.isLeaf()) {
-			Object o = node.getMetaData(metadata);
+			Object o = slot.isHeight ? (Object) node.getHeight() : node.getMetaData(slot.name);
 			if (o instanceof Double) {
-				Object range = nodeMCC.getMetaData(metadata + "_95%_HPD");
+				Object range = nodeMCC.getMetaData(slot.hpdKey);
 				if (range != null) {
 					Double [] values = (Double []) range;
 					Double value = (Double) o;
-					if (value >= values[0] && value < values[1]) {
-						matchCounter.matchCount++;
-						if (node.isLeaf()) {
-							matchCounter.leafMatchCount++;
-						}
-					} else {
-						matchCounter.missMatchCount++;
-						if (node.isLeaf()) {
-							matchCounter.leafMissMatchCount++;
-						}
-					}
+					count(counts[k], value >= values[0] && value < values[1], isLeaf);
 				}
 			} else  if (o instanceof String) {
-				Object set = nodeMCC.getMetaData(metadata + ".set");
+				Object set = nodeMCC.getMetaData(slot.setKey);
 				if (set != null) {
 					String [] values = (String []) set;
-					Double [] probs = (Double []) nodeMCC.getMetaData(metadata + ".set.prob");
-					if (isInCredibleSet(values, probs, (String)o)) {
-						matchCounter.matchCount++;
-						if (node.isLeaf()) {
-							matchCounter.leafMatchCount++;
-						}
-					} else {
-						matchCounter.missMatchCount++;
-						if (node.isLeaf()) {
-							matchCounter.leafMissMatchCount++;
-						}
-					}
+					Double [] probs = (Double []) nodeMCC.getMetaData(slot.setProbKey);
+					count(counts[k], isInCredibleSet(values, probs, (String)o), isLeaf);
 				}
 			}
-			}
 		}
 		
-		if (node.isLeaf()) {
+		if (isLeaf) {
 			// sanity check
 			if (!node.getID().equals(nodeMCC.getID())) {
 				throw new IllegalArgumentException("leaf nodes do not match");
 			}
 		} else {
-			traverse(node.getLeft(), nodeMCC.getLeft());
-			traverse(node.getRight(), nodeMCC.getRight());
+			traverse(node.getLeft(), nodeMCC.getLeft(), slots, counts);
+			traverse(node.getRight(), nodeMCC.getRight(), slots, counts);
+		}
+	}
+
+	private static void count(int [] counts, boolean match, boolean isLeaf) {
+		if (match) {
+			counts[MATCH]++;
+			if (isLeaf) {
+				counts[LEAF_MATCH]++;
+			}
+		} else {
+			counts[MISS]++;
+			if (isLeaf) {
+				counts[LEAF_MISS]++;
+			}
 		}
-		
-		
 	}
 
 	private boolean isInCredibleSet(String[] values, Double[] probs, String o) {
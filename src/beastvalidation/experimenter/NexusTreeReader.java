@@ -0,0 +1,174 @@
+package beastvalidation.experimenter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeParser;
+import beast.base.parser.NexusParser;
+
+/**
+ * Reads the one tree of a Nexus file, such as a summary tree from TreeAnnotator, without setting up
+ * a NexusParser: only the translate table and tree statement of the trees block are looked at, and
+ * the tree is parsed by TreeParser, as NexusParser does. Files this does not handle, like those without
+ * a numbered translate table, are passed on to NexusParser.
+ */
+public class NexusTreeReader {
+
+	private NexusTreeReader() {
+	}
+
+	public static Tree read(File file) throws IOException {
+		String nexus = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+		List<String> taxa = null;
+		int origin = -1;
+		String newick = null;
+		int treeCount = 0;
+		int start = indexOfIgnoreCase(nexus, "begin trees;", 0);
+		if (start >= 0) {
+			List<String> statements = statements(nexus, start + "begin trees;".length());
+			for (String statement : statements) {
+				String lower = statement.toLowerCase();
+				if (lower.startsWith("translate")) {
+					taxa = new ArrayList<>();
+					origin = parseTranslate(statement.substring("translate".length()), taxa);
+				} else if (lower.startsWith("tree") && statement.indexOf('(') > 0) {
+					newick = statement.substring(statement.indexOf('(')) + ";";
+					treeCount++;
+				} else if (lower.startsWith("end")) {
+					break;
+				}
+			}
+		}
+		if (treeCount > 1) {
+			throw new IllegalArgumentException("Expected only 1 tree in file " + file.getPath());
+		}
+		if (newick == null || origin < 0) {
+			return parseNexus(file);
+		}
+		return new TreeParser(taxa, newick, origin, false);
+	}
+
+	private static Tree parseNexus(File file) throws IOException {
+		NexusParser parser = new NexusParser();
+		parser.parseFile(file);
+		if (parser.trees == null || parser.trees.size() != 1) {
+			throw new IllegalArgumentException("Expected only 1 tree in file " + file.getPath());
+		}
+		return parser.trees.get(0);
+	}
+
+	/**
+	 * Adds taxa of a translate table to the list in order of their numbers.
+	 * @return the number of the first taxon, 0 or 1, or -1 if the taxa are not numbered consecutively from there
+	 */
+	static int parseTranslate(String table, List<String> taxa) {
+		int origin = -1;
+		for (String entry : split(table, ',')) {
+			String [] strs = stripComments(entry).trim().split("\\s+", 2);
+			if (strs.length != 2) {
+				return -1;
+			}
+			int nr;
+			try {
+				nr = Integer.parseInt(strs[0]);
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+			if (origin < 0) {
+				origin = nr;
+				if (origin > 1) {
+					return -1;
+				}
+			}
+			if (nr != origin + taxa.size()) {
+				return -1;
+			}
+			String name = strs[1].trim();
+			if (name.length() > 1 && (name.charAt(0) == '\'' || name.charAt(0) == '"') && name.charAt(name.length() - 1) == name.charAt(0)) {
+				name = name.substring(1, name.length() - 1);
+			}
+			taxa.add(name);
+		}
+		return origin;
+	}
+
+	/** statements ending in ';' from position start on, trimmed, with comments between statements removed **/
+	private static List<String> statements(String nexus, int start) {
+		List<String> statements = new ArrayList<>();
+		int begin = start;
+		for (int i = start; i < nexus.length(); i++) {
+			char c = nexus.charAt(i);
+			if (c == '[' || c == '\'' || c == '"') {
+				i = skip(nexus, i);
+			} else if (c == ';') {
+				statements.add(stripLeadingComments(nexus.substring(begin, i)).trim());
+				begin = i + 1;
+			}
+		}
+		return statements;
+	}
+
+	private static List<String> split(String str, char separator) {
+		List<String> parts = new ArrayList<>();
+		int begin = 0;
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c == '[' || c == '\'' || c == '"') {
+				i = skip(str, i);
+			} else if (c == separator) {
+				parts.add(str.substring(begin, i));
+				begin = i + 1;
+			}
+		}
+		if (str.substring(begin).trim().length() > 0) {
+			parts.add(str.substring(begin));
+		}
+		return parts;
+	}
+
+	/** position of the character closing the comment or quote at position i, or the end of the string **/
+	private static int skip(String str, int i) {
+		char close = str.charAt(i) == '[' ? ']' : str.charAt(i);
+		int end = str.indexOf(close, i + 1);
+		return end < 0 ? str.length() : end;
+	}
+
+	private static String stripComments(String str) {
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c == '[') {
+				i = skip(str, i);
+			} else if (c == '\'' || c == '"') {
+				int end = skip(str, i);
+				b.append(str, i, Math.min(end + 1, str.length()));
+				i = end;
+			} else {
+				b.append(c);
+			}
+		}
+		return b.toString();
+	}
+
+	private static String stripLeadingComments(String statement) {
+		String str = statement.trim();
+		while (str.startsWith("[")) {
+			str = str.substring(Math.min(skip(str, 0) + 1, str.length())).trim();
+		}
+		return str;
+	}
+
+	private static int indexOfIgnoreCase(String str, String target, int from) {
+		for (int i = from; i + target.length() <= str.length(); i++) {
+			if (str.regionMatches(true, i, target, 0, target.length())) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
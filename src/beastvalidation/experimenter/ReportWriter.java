@@ -0,0 +1,99 @@
+package beastvalidation.experimenter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Buffered writer for the tsv, svg and html files of reports. Numbers are written as they
+ * would appear when appended to a string, without building strings around them, so that
+ * charts with many elements can be streamed to disk one element at a time. Integers, and
+ * doubles with whole values, are written from a reusable buffer; other doubles still go
+ * through Double.toString, since its shortest round-trip digits are what the text must show:
+ *
+ * svg.print("<circle cx='").print(x).print("' cy='").print(y).println("'/>");
+ */
+public class ReportWriter implements Closeable {
+	private final Writer out;
+	private final char [] digits = new char[11];
+
+	public ReportWriter(File file) throws IOException {
+		out = new BufferedWriter(new FileWriter(file), 1 << 16);
+	}
+
+	public ReportWriter print(String str) throws IOException {
+		out.write(str);
+		return this;
+	}
+
+	public ReportWriter print(double d) throws IOException {
+		// whole values below 10^7 show as digits followed by ".0", except -0.0
+		if (d == (int) d && Math.abs(d) < 1e7 && !(d == 0 && 1 / d < 0)) {
+			print((int) d);
+			out.write(".0");
+			return this;
+		}
+		out.write(Double.toString(d));
+		return this;
+	}
+
+	public ReportWriter print(int i) throws IOException {
+		if (i == Integer.MIN_VALUE) {
+			out.write(Integer.toString(i));
+			return this;
+		}
+		if (i < 0) {
+			out.write('-');
+			i = -i;
+		}
+		int pos = digits.length;
+		do {
+			digits[--pos] = (char) ('0' + i % 10);
+			i /= 10;
+		} while (i > 0);
+		out.write(digits, pos, digits.length - pos);
+		return this;
+	}
+
+	/** writes x,y followed by a space, as in the points attribute of a polyline **/
+	public ReportWriter point(double x, double y) throws IOException {
+		print(x);
+		out.write(',');
+		print(y);
+		out.write(' ');
+		return this;
+	}
+
+	public ReportWriter println(String str) throws IOException {
+		out.write(str);
+		out.write('\n');
+		return this;
+	}
+
+	public ReportWriter println() throws IOException {
+		out.write('\n');
+		return this;
+	}
+
+	/** copies a file written earlier, such as a table that was filled in while the rest of the report was written **/
+	public ReportWriter append(File file) throws IOException {
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			char [] buffer = new char[1 << 16];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
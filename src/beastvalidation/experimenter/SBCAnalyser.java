@@ -2,13 +2,19 @@ package beastvalidation.experimenter;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.nio.DoubleBuffer;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.IntUnaryOperator;
 
-import org.apache.commons.math.MathException;
 import org.apache.commons.math.distribution.BinomialDistribution;
 import org.apache.commons.math.distribution.BinomialDistributionImpl;
 
@@ -17,10 +23,8 @@ import beast.base.core.Citation;
 import beast.base.core.Description;
 import beast.base.core.Input;
 import beast.base.inference.Runnable;
-import beast.base.util.Randomizer;
 import beast.base.core.Input.Validate;
 import beast.base.core.Log;
-import beastfx.app.tools.LogAnalyser;
 import beastfx.app.util.OutFile;
 
 @Description(value="Validating  Bayesian  Inference Algorithms  with  Simulation-Based Calibration")
@@ -44,6 +48,9 @@ public class SBCAnalyser extends Runnable {
 			+ "'out' needs to be specified). Can also be set by the COVERAGE_LABEL environment variable or the `coveragelabel` java directive "
 			+ "(through java -d coveragelabel=MyLabel)");
 
+	final public Input<Integer> simulateBandsInput = new Input<>("simulateBands", "number of experiments to simulate pointwise ECDF bands with, "
+			+ "or 0 to calculate simultaneous bands, which contain the whole ECDF with 95% probability, from the binomial distribution", 0);
+	final public Input<Integer> threadsInput = new Input<>("threads", "number of threads used to process entries", Runtime.getRuntime().availableProcessors());
 	
 	@Override
 	public void initAndValidate() {
@@ -64,7 +71,7 @@ public class SBCAnalyser extends Runnable {
 		exclude.add("likelihood");
 		
 		File svgdir = null;
-		PrintStream html = null;
+		ReportWriter html = null;
 		if (outputInput.get() != null && !outputInput.get().getName().equals("[[none]]")) {
 			String label = htmlTitleLabelInput.get() == null ? "" : htmlTitleLabelInput.get();
 			if (System.getProperty("coveragelabel") != null) {
@@ -77,7 +84,7 @@ public class SBCAnalyser extends Runnable {
 			if (!svgdir.isDirectory()) {
 				throw new IllegalArgumentException(svgdir.getPath() + " is not a directory. Specify an existing directory for outputDir");
 			}
-			html = new PrintStream(svgdir.getPath()+"/SBC.html");
+			html = new ReportWriter(new File(svgdir.getPath()+"/SBC.html"));
 			html.println("<!doctype html>\n"+
 					"<html>\n"+
 					"<head><title>Simulation Based Calibration" + label + "</title></head>\n"+
@@ -86,31 +93,37 @@ public class SBCAnalyser extends Runnable {
 			html.println("<li>prior sample: " + logFileInput.get().getPath()+"</li>");
 			html.println("<li>posterior samples: " + logAnalyserFileInput.get().getPath()+"</li>");
 			html.println("<li>Use "+ (useRankedBinsInput.get() ? "ranking" : "empirical bins") + " for bins</li>");
+			html.println("<li>ECDF bands: " + (simulateBandsInput.get() > 0 ?
+					"95% pointwise, simulated with " + simulateBandsInput.get() + " experiments (each point of the ECDF is inside with 95% probability)" :
+					"95% simultaneous (the whole ECDF is inside with 95% probability)") + "</li>");
 			html.println("<table>");
 		}
 		
 
-		LogAnalyser truth = new LogAnalyser(logFileInput.get().getAbsolutePath(), 0, true, false);
-		LogAnalyser estimated = new LogAnalyser(logAnalyserFileInput.get().getAbsolutePath(), 0, true, false);
+		TraceStore truth = TraceStore.open(logFileInput.get(), 0);
+		TraceStore estimated = TraceStore.open(logAnalyserFileInput.get(), 0);
 		int skip = skipLogLinesInput.get();
 
 		
-		int L = estimated.getTrace(0).length / (truth.getTrace(0).length - skip);
+		int L = estimated.getSampleCount() / (truth.getSampleCount() - skip);
 
 		int binCount = binCountInput.get();
 		if (binCount <= 0) {
 			binCount = L + 1;
 		}
-		if (binCount > truth.getTrace(0).length - skip) {
+		if (binCount > truth.getSampleCount() - skip) {
 			throw new IllegalArgumentException("Number of bins (or samples per posterior) should be less than number of prior samples");
 		}
 		
-		BinomialDistribution binom = new BinomialDistributionImpl(truth.getTrace(0).length, 1.0/binCount);
+		if (useRankedBinsInput.get() && binCountInput.get() > 0 && (int) (L * (binCount - 1.0) / binCount) + 1 >= L) {
+			throw new IllegalArgumentException("Number of bins should be less than number of samples per posterior to use empirical bins");
+		}
+		BinomialDistribution binom = new BinomialDistributionImpl(truth.getSampleCount(), 1.0/binCount);
 		int pLow = binom.inverseCumulativeProbability(0.005);
 		int pUp = binom.inverseCumulativeProbability(0.995);
 		int pLow95 = binom.inverseCumulativeProbability(0.025);
 		int pUp95 = binom.inverseCumulativeProbability(0.975);
-		int pExp = truth.getTrace(0).length/binCount;
+		int pExp = truth.getSampleCount()/binCount;
 		Log.info("99%lo << mean << 99%up = " + pLow + " << " + pExp + " << " + pUp);
 		
 		StringBuilder b = new StringBuilder();
@@ -119,116 +132,192 @@ public class SBCAnalyser extends Runnable {
 		}
 		Log.info(CoverageCalculator.space + "\tmissed\t" + b.toString());
 		
-		int k = 0;
-		StringBuilder [] html2 = new StringBuilder[2];
-		html2[0] = new StringBuilder();
-		html2[1] = new StringBuilder();
-		html2[0].append("<table>\n");
-		html2[1].append("<table>\n");
-		for (int i = 0; i < truth.getLabels().size(); i++) {
-			String label = truth.getLabels().get(i);
-			if (!(exclude.contains(label) ||
-					Double.isNaN(truth.getTrace(i+1)[0]))) {
-				output(i, k, label, truth, estimated, svgdir, skip, html, html2,
-						binCount, L, pLow, pUp, pLow95, pUp95, pExp);
-				k++;
-			}						
-		}
-		html2[0].append("</table>\n");
-		html2[1].append("</table>\n");
-		//Log.info("Expected number of misses: " + 0.05 * binom.getNumberOfTrials());
-		
-		if (html != null) {
-			//html.println("Expected number of misses: " + 0.05 * binom.getNumberOfTrials());
-			html.println("</table>");
-			html.println();
-			html.println(html2[0].toString());
-			html.println(html2[1].toString());
-			html.println("</body>\n</html>");
-			html.close();
+		// bins of entries are counted in parallel, and reported in label order
+		List<Future<int[]>> binsByLabel = new ArrayList<>();
+		ExecutorService pool = Executors.newFixedThreadPool(threadsInput.get());
+		try {
+			for (int i = 0; i < truth.getLabels().size(); i++) {
+				String label = truth.getLabels().get(i);
+				if (!(exclude.contains(label) ||
+						Double.isNaN(truth.getColumn(i+1).get(0)))) {
+					int binCount_ = binCount;
+					binsByLabel.add(pool.submit(() -> calcBins(label, truth, estimated, skip, binCount_, L)));
+				} else {
+					binsByLabel.add(null);
+				}
+			}
+
+			// the tables of ECDF charts are filled in next to the main table, and copied into the report at the end
+			File [] tableFiles = new File[2];
+			ReportWriter [] html2 = new ReportWriter[2];
+			double [][] bounds = null;
+			if (html != null) {
+				for (int j = 0; j < 2; j++) {
+					tableFiles[j] = File.createTempFile("SBC", ".html");
+					html2[j] = new ReportWriter(tableFiles[j]);
+					html2[j].println("<table>");
+				}
+				bounds = ECDFBands.getBounds(truth.getSampleCount() - skip, binCount, 0.95, simulateBandsInput.get(), threadsInput.get());
+			}
+
+			// charts are written in parallel, everything else in label order
+			List<Future<?>> charts = new ArrayList<>();
+			int k = 0;
+			for (int i = 0; i < truth.getLabels().size(); i++) {
+				if (binsByLabel.get(i) != null) {
+					String label = truth.getLabels().get(i);
+					output(i, k, label, Tasks.get(binsByLabel.get(i)), svgdir, skip, html, html2, pool, charts,
+							binCount, L, pLow, pUp, pLow95, pUp95, pExp, bounds);
+					k++;
+				}
+			}
+			for (Future<?> chart : charts) {
+				Tasks.get(chart);
+			}
+			//Log.info("Expected number of misses: " + 0.05 * binom.getNumberOfTrials());
 			
-			try {
-				Application.openUrl("file://" + svgdir.getPath()+"/SBC.html");
-			} catch (IOException e) {
-				e.printStackTrace();
-				Log.warning("Output in " + svgdir.getPath()+"/SBC.html");
+			if (html != null) {
+				//html.println("Expected number of misses: " + 0.05 * binom.getNumberOfTrials());
+				html.println("</table>");
+				html.println();
+				for (int j = 0; j < 2; j++) {
+					html2[j].println("</table>");
+					html2[j].close();
+					html.append(tableFiles[j]).println();
+				}
+				html.println("</body>\n</html>");
+				html.close();
+				for (File tableFile : tableFiles) {
+					tableFile.delete();
+				}
+				
+				try {
+					Application.openUrl("file://" + svgdir.getPath()+"/SBC.html");
+				} catch (IOException e) {
+					e.printStackTrace();
+					Log.warning("Output in " + svgdir.getPath()+"/SBC.html");
+				}
 			}
+		} finally {
+			pool.shutdown();
 		}
 
 		Log.warning("Done!");	
 	}
 
-	double [][] bounds = null;
-	private void output(int i, int k2, String label, LogAnalyser truth, LogAnalyser estimated, File svgdir, int skip,
-			PrintStream html, StringBuilder []html2, int binCount, int L, int pLow, int pUp, int pLow95, int pUp95, int pExp) 
-					throws IOException, MathException {
-		Double [] trueValues = truth.getTrace(label);
-		Double [] estimates = null;
-		try {
-			estimates = estimated.getTrace(label);
-		} catch (IndexOutOfBoundsException e) {
-			Log.warning("Label " + label + " not found in estimates");
+	/** @return count per bin, or null if the label is not in the estimates **/
+	private int [] calcBins(String label, TraceStore truth, TraceStore estimated, int skip, int binCount, int L) {
+		int index = estimated.indexOf(label);
+		if (index < 0) {
+			return null;
 		}
-		if (estimates == null) {
-			Log.warning("Skipping " + label);
-		} else {
-			if (skip > 0) {
-				Double [] tmp = new Double[trueValues.length - skip];
-				System.arraycopy(trueValues, skip, tmp, 0, tmp.length);
-				trueValues = tmp;
-			}
+		DoubleBuffer trueValues = truth.getColumn(truth.indexOf(label));
+		trueValues.position(skip);
+		return calcBins(trueValues.slice(), estimated.getColumn(index), binCount, L, useRankedBinsInput.get(), binCountInput.get() <= 0);
+	}
 
-			int  [] bins = new int[binCount];
-			
-//			double [] binBoundaries = new double[binCount - 1];
-//			for (int k = 0; k < binCount-1; k++) {
-//				int j = (int) (trueValues.length * (k+1.0)/binCount);
-//				binBoundaries[k] = (trueValues[j] + trueValues[j+1]) / 2.0;
-//			}
-
-			boolean empiricalBins = useRankedBinsInput.get();
-
-			// int L = estimates.length / trueValues.length;
-			for (int j = 0; j < trueValues.length; j++) {
-				double [] estimatesX = new double[L];
-				for (int k = 0; k < L; k++) {
-					estimatesX[k] = estimates[j * L + k];
-				}
-				Arrays.sort(estimatesX);
-				
-				if (empiricalBins) {
-					double [] binBoundaries = new double[binCount - 1];
-					if (empiricalBins) {
-						if (binCountInput.get() <= 0) {
-							binBoundaries = estimatesX;
-						} else { 
-							for (int k = 0; k < binCount-1; k++) {
-								int m = (int) (estimatesX.length * (k+1.0)/binCount);
-								binBoundaries[k] = (estimatesX[m] + estimatesX[m+1]) / 2.0;
-							}
-						}
-					}
+	/**
+	 * Counts in which bin the true value of each replicate falls with respect to the posterior sample of the replicate.
+	 * Every sample is visited once, counting how many lie below and at the true value and keeping the nearest ones
+	 * on either side, which is all that is needed to find the bin that searching the sorted sample would give.
+	 * @param estimates posterior samples of the replicates, L per replicate
+	 * @param empiricalBins whether bins are bounded by the posterior sample (useRankedBins) rather than by rank
+	 * @param binPerSample whether there is a bin on either side of every sample, so binCount is L+1
+	 */
+	public static int [] calcBins(DoubleBuffer trueValues, DoubleBuffer estimates, int binCount, int L, boolean empiricalBins, boolean binPerSample) {
+		int replicates = trueValues.limit();
+		// index of the lower sample of each pair that a bin boundary lies between
+		int [] boundaryIndex = new int[binCount - 1];
+		for (int k = 0; k < binCount-1; k++) {
+			boundaryIndex[k] = (int) (L * (k+1.0)/binCount);
+		}
 
-					int bin = Arrays.binarySearch(binBoundaries, trueValues[j]);
-					if (bin < 0) {
-						bin = -bin-1;
+		int [] bins = new int[binCount];
+		for (int j = 0; j < replicates; j++) {
+			double t = trueValues.get(j);
+			int below = 0, equal = 0;
+			double maxBelow = Double.NEGATIVE_INFINITY, minAbove = Double.POSITIVE_INFINITY;
+			for (int k = j * L; k < (j + 1) * L; k++) {
+				double x = estimates.get(k);
+				int c = Double.compare(x, t);
+				if (c < 0) {
+					below++;
+					if (Double.compare(x, maxBelow) > 0) {
+						maxBelow = x;
 					}
-					bins[bin]++;
+				} else if (c == 0) {
+					equal++;
+				} else if (Double.compare(x, minAbove) < 0) {
+					minAbove = x;
+				}
+			}
+			// position m of the sorted sample compares to t as m compares to the range [below, below + equal)
+			int lo = below, hi = below + equal;
+			double a = maxBelow, z = minAbove;
+
+			if (empiricalBins) {
+				int bin;
+				if (binPerSample) {
+					bin = binarySearch(L, m -> m < lo ? -1 : (m < hi ? 0 : 1));
 				} else {
-					int rank = Arrays.binarySearch(estimatesX, trueValues[j]);
-					if (rank < 0) {
-						rank = 1-rank;
-					}
-					int bin = rank * binCount / L;
-					if (bin == bins.length) {
-						bin--;
-					}
-					bins[bin]++;
+					bin = binarySearch(binCount - 1, k -> {
+						int m = boundaryIndex[k];
+						if (m + 1 < lo) {
+							return -1;
+						}
+						if (m >= hi) {
+							return 1;
+						}
+						double x0 = m < lo ? a : t;
+						double x1 = m + 1 < hi ? t : z;
+						return Double.compare((x0 + x1) / 2.0, t);
+					});
 				}
-				
+				if (bin < 0) {
+					bin = -bin-1;
+				}
+				bins[bin]++;
+			} else {
+				int rank = binarySearch(L, m -> m < lo ? -1 : (m < hi ? 0 : 1));
+				if (rank < 0) {
+					rank = 1-rank;
+				}
+				int bin = rank * binCount / L;
+				if (bin == bins.length) {
+					bin--;
+				}
+				bins[bin]++;
 			}
+		}
+		return bins;
+	}
 
-			
+	/** Arrays.binarySearch over positions 0..length-1, given how the value at a position compares to the key **/
+	private static int binarySearch(int length, IntUnaryOperator compareToKey) {
+		int low = 0;
+		int high = length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int c = compareToKey.applyAsInt(mid);
+			if (c < 0) {
+				low = mid + 1;
+			} else if (c > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private void output(int i, int k2, String label, int [] bins, File svgdir, int skip,
+			ReportWriter html, ReportWriter [] html2, ExecutorService pool, List<Future<?>> charts,
+			int binCount, int L, int pLow, int pUp, int pLow95, int pUp95, int pExp, double [][] bounds) 
+					throws IOException {
+		if (bins == null) {
+			Log.warning("Label " + label + " not found in estimates");
+			Log.warning("Skipping " + label);
+		} else {
 			StringBuilder b = new StringBuilder();
 			int missed = 0;
 			for (int j = 0; j < binCount; j++) {
@@ -239,93 +328,42 @@ public class SBCAnalyser extends Runnable {
 			}
 			
 			int n = bins.length;
-			double [] binomHi = new double[n];
-			double [] binomLo = new double[n];
 			int [] cumBins = new int[n];
 			
 			for (int j = 0; j < n; j++) {
 				cumBins[j] = bins[j] + (j>0?cumBins[j-1]:0);
 			}
-			for (int j = 0; j < n; j++) {
-				BinomialDistribution binom = new BinomialDistributionImpl(cumBins[n-1], (j+0.5) / n);
-				binomLo[j] = binom.inverseCumulativeProbability(0.025);
-				binomHi[j] = binom.inverseCumulativeProbability(0.975);
-			}
-			
 			
 			Log.info(label + (label.length() < CoverageCalculator.space.length() ? CoverageCalculator.space.substring(label.length()) : "") + "\t" + 
 					missed + "\t" + 
 					b.toString());
 
 			if (html != null) {
-				if (bounds == null) {
-					bounds = new double[2][binCount + 1];
-					simulateBounds(100000, trueValues.length, binCount, bounds);
-				}
-				outputHTML(k2, label, svgdir, skip, html, html2, binCount, L, pLow, pUp, pLow95, pUp95, pExp, bins, missed,
-						cumBins, binomLo, binomHi, bounds 
+				outputHTML(k2, label, svgdir, skip, html, html2, pool, charts, binCount, L, pLow, pUp, pLow95, pUp95, pExp, bins, missed,
+						cumBins, bounds 
 						);
 			}
 		}		
 	}
 
 	
-	/** run a number of trials, and empirically determine bounds for N experiments and `bins` bins **/
-	public static void simulateBounds(int trials, int N, int bins, double[][] bounds) {
-		double deltaBin = (double)1.0/(double)bins;
-		
-		int [][] counts = new int[bins][trials];
-		for (int i = 0; i < trials; i++) {
-			int [] count = new int[bins];
-			for (int j = 0; j < N; j++) {
-				double r = Randomizer.nextDouble();
-				int bin = (int)(r / deltaBin);
-				count[bin]++;
-			}
-			int sum = 0;
-			for (int k = 0;k < bins; k++) {
-				counts[k][i] = sum + count[k];
-				sum += count[k];
-			}
-		}
-		for (int k = 0;k < bins; k++) {
-			Arrays.sort(counts[k]);
-		}
-		
-		// Take 95% **symmetric** confidence interval for bounds
-		// Note, these are not HPDs.
-		for (int k = 0; k < bins; k++) {
-			bounds[0][k+1] = (double)counts[k][(int)( 2.5 * trials/100.0)]/(double)N;
-			bounds[1][k+1] = (double)counts[k][(int)(97.5 * trials/100.0)]/(double)N;
-		}
-		
-		// get rid of noise
-		double [] tmp = new double[bounds[0].length];
-		int w = 3;
-
-		System.arraycopy(bounds[0], 0, tmp, 0, bounds[0].length);
-		for (int k = w; k < bins-w; k++) {
-			double sum = 0;
-			for (int i = -w; i <= w; i++) {
-				sum += tmp[k + i];
-			}
-			bounds[0][k] = sum /= (2*w+1);
-		}
-		
-		System.arraycopy(bounds[1], 0, tmp, 0, bounds[0].length);
-		for (int k = w; k < bins-w; k++) {
-			double sum = 0;
-			for (int i = -w; i <= w; i++) {
-				sum += tmp[k + i];
-			}
-			bounds[1][k] = sum /= (2*w+1);
+	/** run a number of trials, and empirically determine bounds for N experiments and `bins` bins, using the threads of the analyser **/
+	public void simulateBounds(int trials, int N, int bins, double[][] bounds) {
+		try {
+			double [][] simulated = ECDFBands.simulate(trials, N, bins, 0.95, threadsInput.get());
+			System.arraycopy(simulated[0], 0, bounds[0], 0, bins + 1);
+			System.arraycopy(simulated[1], 0, bounds[1], 0, bins + 1);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
 		}
 	}
 
 	private void outputHTML(int k2, String label, File svgdir, int skip,
-			PrintStream html, 
-			StringBuilder [] html2, int binCount, int L, int pLow, int pUp, int pLow95, int pUp95, int pExp, int [] bins, int missed,
-			int [] cumBins, double [] binomLo, double [] binomHi,
+			ReportWriter html, 
+			ReportWriter [] html2, ExecutorService pool, List<Future<?>> charts,
+			int binCount, int L, int pLow, int pUp, int pLow95, int pUp95, int pExp, int [] bins, int missed,
+			int [] cumBins,
 			double [][] bounds
 			) throws IOException {
 		int max = pUp;
@@ -340,18 +378,21 @@ public class SBCAnalyser extends Runnable {
 			max = max + 99 - (max+99) % 100;
 		}
 		
-		outputSVGGraph(label, svgdir, binCount, pLow, pUp, pLow95, pUp95, pExp, bins, max);
-		
-		outputECDFGraph(label, svgdir, binCount, cumBins, binomLo, binomHi, bounds);
-		
-		outputECDFDiffGraph(label, svgdir, binCount, cumBins, binomLo, binomHi, bounds);
-		
+		int max_ = max;
+		charts.add(pool.submit(() -> {
+			outputSVGGraph(label, svgdir, binCount, pLow, pUp, pLow95, pUp95, pExp, bins, max_);
+			
+			outputECDFGraph(label, svgdir, binCount, cumBins, bounds);
+			
+			outputECDFDiffGraph(label, svgdir, binCount, cumBins, bounds);
+			return null;
+		}));
 		
 		
 		if (k2 % 4 == 0) {
 			html.println("<tr>");
-			html2[0].append("<tr>\n");
-			html2[1].append("<tr>\n");
+			html2[0].println("<tr>");
+			html2[1].println("<tr>");
 		}
 		html.println("<td>");
 		html.println("<h3>" + label + "</h3>");
@@ -359,97 +400,33 @@ public class SBCAnalyser extends Runnable {
 		html.println("<img width=\"350px\" src=\"" + label + ".svg\">");
 		html.println("</td>");
 
-		html2[0].append("<td>");
-		html2[0].append("<h3>" + label + "</h3>");
-		html2[0].append("<p>Missed: " + missed + "</p><p>");
-		html2[0].append("<img width=\"350px\" src=\"" + label + ".ECDF.svg\">");
-		html2[0].append("</td>");
+		html2[0].print("<td>");
+		html2[0].print("<h3>" + label + "</h3>");
+		html2[0].print("<p>Missed: " + missed + "</p><p>");
+		html2[0].print("<img width=\"350px\" src=\"" + label + ".ECDF.svg\">");
+		html2[0].print("</td>");
 		
-		html2[1].append("<td>");
-		html2[1].append("<h3>" + label + "</h3>");
-		html2[1].append("<p>Missed: " + missed + "</p><p>");
-		html2[1].append("<img width=\"350px\" src=\"" + label + "Diff.ECDF.svg\">");
-		html2[1].append("</td>");
+		html2[1].print("<td>");
+		html2[1].print("<h3>" + label + "</h3>");
+		html2[1].print("<p>Missed: " + missed + "</p><p>");
+		html2[1].print("<img width=\"350px\" src=\"" + label + "Diff.ECDF.svg\">");
+		html2[1].print("</td>");
 
 		if ((k2+1) % 4 == 0) {
 			html.println("</tr>");
-			html2[1].append("</tr>\n");
-			html2[1].append("</tr>\n");
+			html2[0].println("</tr>");
+			html2[1].println("</tr>");
 		}
 	}
 
 	private void outputECDFGraph(String label, File svgdir, int binCount, int[] cumBins, 
-			double[] binomLo,
-			double[] binomHi,
 			double[][] bounds) throws IOException {
-		double max = cumBins[cumBins.length - 1];
-		
-		StringBuilder bHi = new StringBuilder();
-		bHi.append("0,0 ");
-		StringBuilder bLo = new StringBuilder();
-		bLo.append("0,0 ");
-		StringBuilder cdf = new StringBuilder();
-		cdf.append("0,0 ");
-		for (int i = 0; i < binCount; i++) {
-			double x = (i+0.0)/binCount;
-			x = (i+0.5)/binCount;
-			//cdf.append(x + "," + (i>0?(cumBins[i-1]/max):0) + " ");
-			cdf.append(x + "," + (cumBins[i]/max) + " ");
-		}
-		for (int i = 0; i < bounds[0].length-1; i++) {
-			double x = (i+0.0)/(bounds[0].length-1);
-			bHi.append(x + "," + (binomHi[i]/max) + " ");
-			x = (i+0.5)/(bounds[0].length-1);
-			bLo.append(x + "," + (binomLo[i]/max) + " ");
-		}
-		bLo.append("1,1");
-		bHi.append("1,1");
-		cdf.append("1,1 ");
-
-		StringBuilder bHi2 = new StringBuilder();
-		StringBuilder bLo2 = new StringBuilder();
-		for (int i = 0; i < bounds[0].length; i++) {
-			double x = (i+0.0)/(bounds[0].length-1);
-			bLo2.append(x + "," + bounds[0][i] + " ");
-			bHi2.append(x + "," + bounds[1][i] + " ");
-		}
-
-		outputSVG(label, svgdir, binCount, bHi, bLo, cdf, bHi2, bLo2);
+		outputSVG(label, svgdir, binCount, cumBins, bounds, (x, y) -> y);
 	}
 		
 	private void outputECDFDiffGraph(String label, File svgdir, int binCount, int[] cumBins, 
-			double[] binomLo,
-			double[] binomHi,
 			double[][] bounds) throws IOException {
-		double max = cumBins[cumBins.length - 1];
-		
-		StringBuilder bHi = new StringBuilder();
-		bHi.append("0,0.5 ");
-		StringBuilder bLo = new StringBuilder();
-		bLo.append("0,0.5 ");
-		StringBuilder cdf = new StringBuilder();
-		cdf.append("0,0.5 ");
-		for (int i = 0; i < binCount; i++) {
-			double x = (i+0.0)/binCount;
-			bHi.append(x + "," + diff(x, binomHi[i]/max) + " ");
-			x = (i+0.5)/binCount;
-			bLo.append(x + "," + diff(x, binomLo[i]/max) + " ");
-			//cdf.append(x + "," + (i>0?(cumBins[i-1]/max):0) + " ");
-			cdf.append(x + "," + diff(x, (cumBins[i]/max)) + " ");
-		}
-		bLo.append("1,0.5");
-		bHi.append("1,0.5");
-		cdf.append("1,0.5 ");
-
-		StringBuilder bHi2 = new StringBuilder();
-		StringBuilder bLo2 = new StringBuilder();
-		for (int i = 0; i < bounds[0].length; i++) {
-			double x = (i+0.0)/(bounds[0].length-1);
-			bLo2.append(x + "," + diff(x, bounds[0][i]) + " ");
-			bHi2.append(x + "," + diff(x, bounds[1][i]) + " ");
-		}
-
-		outputSVG(label+"Diff", svgdir, binCount, bHi, bLo, cdf, bHi2, bLo2);
+		outputSVG(label+"Diff", svgdir, binCount, cumBins, bounds, this::diff);
 	}
 
 	
@@ -459,12 +436,13 @@ public class SBCAnalyser extends Runnable {
 		return y;
 	}
 
-	private void outputSVG(String label, File svgdir, int binCount, StringBuilder bHi, StringBuilder bLo, StringBuilder cdf, StringBuilder bHi2, StringBuilder bLo2) throws IOException  {
+	/** writes the ECDF and its bounds, where height(x, y) is where to draw ECDF value y at x **/
+	private void outputSVG(String label, File svgdir, int binCount, int[] cumBins, double[][] bounds, DoubleBinaryOperator height) throws IOException  {
 		// bars
 		double dx = 1000.0;
 		double dy = 740.0;
 	
-		PrintStream svg = new PrintStream(svgdir.getPath() +"/" + label + ".ECDF.svg");
+		ReportWriter svg = new ReportWriter(new File(svgdir.getPath() +"/" + label + ".ECDF.svg"));
 		svg.println("<svg class=\"chart\" width=\"1080\" height=\"780\" xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">");
 
 		svg.println("<g transform=\"translate(30,700) scale("+dx+",-"+700+")\">");
@@ -481,14 +459,24 @@ public class SBCAnalyser extends Runnable {
 		}
 
 		
-		// ECDF graph + bounds
-//		svg.println("  <polyline points=\"" + bHi.toString() + "\" style=\"fill:none;stroke-width:0.01;stroke:rgb(0,0,200);opacity: 0.5;\"/>");
-//		svg.println("  <polyline points=\"" + bLo.toString() + "\" style=\"fill:none;stroke-width:0.01;stroke:rgb(0,0,200);opacity: 0.5;\"/>");
-		
-		svg.println("  <polyline points=\"" + bHi2.toString() + "\" style=\"fill:none;stroke-width:0.01;stroke:rgb(0,200,200);opacity: 0.5;\"/>");
-		svg.println("  <polyline points=\"" + bLo2.toString() + "\" style=\"fill:none;stroke-width:0.01;stroke:rgb(0,200,200);opacity: 0.5;\"/>");
+		// ECDF graph + bounds, upper bound first
+		for (int j = 1; j >= 0; j--) {
+			svg.print("  <polyline points=\"");
+			for (int i = 0; i < bounds[j].length; i++) {
+				double x = (i+0.0)/(bounds[j].length-1);
+				svg.point(x, height.applyAsDouble(x, bounds[j][i]));
+			}
+			svg.println("\" style=\"fill:none;stroke-width:0.01;stroke:rgb(0,200,200);opacity: 0.5;\"/>");
+		}
 
-		svg.println("  <polyline points=\"" + cdf.toString() + "\" style=\"fill:none;stroke-width:0.01;stroke:rgb(0,0,0);opacity: 1.0;\"/>");
+		double max = cumBins[cumBins.length - 1];
+		svg.print("  <polyline points=\"").point(0, height.applyAsDouble(0, 0));
+		for (int i = 0; i < binCount; i++) {
+			double x = (i+0.5)/binCount;
+			svg.point(x, height.applyAsDouble(x, cumBins[i]/max));
+		}
+		svg.point(1, height.applyAsDouble(1, 1));
+		svg.println("\" style=\"fill:none;stroke-width:0.01;stroke:rgb(0,0,0);opacity: 1.0;\"/>");
 
 		svg.println("</g>");
 		svg.println("<text style='font-size:20pt' x='0' y='20'>1.0</text>");
@@ -507,7 +495,7 @@ public class SBCAnalyser extends Runnable {
 
 	private void outputSVGGraph(String label, File svgdir, 
 			int binCount, int pLow, int pUp, int pLow95, int pUp95, int pExp, int [] bins, int max) throws IOException{
-		PrintStream svg = new PrintStream(svgdir.getPath() +"/" + label + ".svg");
+		ReportWriter svg = new ReportWriter(new File(svgdir.getPath() +"/" + label + ".svg"));
 		svg.println("<svg class=\"chart\" width=\"1080\" height=\"780\" xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">");
 		
 		// axes
@@ -525,7 +513,7 @@ public class SBCAnalyser extends Runnable {
 
 		
 		for (int j = 0; j < binCount; j++) {
-			svg.println("  <rect x=\""+j+"\" y=\"0\" width=\"0.95\" height=\""+bins[j]+"\" style=\"fill:#00afd7;stroke-width:0.05;stroke:#3d37db\"/>");
+			svg.print("  <rect x=\"").print(j).print("\" y=\"0\" width=\"0.95\" height=\"").print(bins[j]).println("\" style=\"fill:#00afd7;stroke-width:0.05;stroke:#3d37db\"/>");
 			if (j % 10 == 0) {
 			// ticks
 			//	svg.println("<line y1='0' y2='-1' x1='" + (j+0.45) + "' x2='" + (j+0.45) + "' style='stroke-width:0.1;stroke:rgb(0,0,0)'/>");
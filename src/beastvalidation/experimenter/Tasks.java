@@ -0,0 +1,23 @@
+package beastvalidation.experimenter;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/** helpers for the thread pools the tools of this package process replicates and entries with **/
+final class Tasks {
+
+	private Tasks() {
+	}
+
+	/** result of a task, with the exception it threw if it failed **/
+	static <T> T get(Future<T> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+}
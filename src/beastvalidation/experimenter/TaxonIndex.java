@@ -0,0 +1,58 @@
+package beastvalidation.experimenter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.Tree;
+
+/**
+ * Numbers of taxa by name, taken from the leaves of a tree, used to renumber the leaves of another tree
+ * with the same taxa so that clades of both trees refer to the same taxon numbers.
+ */
+public class TaxonIndex {
+	private final Map<String, Integer> numbers;
+
+	/** @param names taxon names by number **/
+	public TaxonIndex(List<String> names) {
+		numbers = new HashMap<>(names.size() * 2);
+		for (int i = 0; i < names.size(); i++) {
+			if (numbers.put(names.get(i), i) != null) {
+				throw new IllegalArgumentException("Taxon " + names.get(i) + " occurs more than once");
+			}
+		}
+	}
+
+	/** @return names of the leaves of the tree by number, which can be used as key for sharing indices **/
+	public static List<String> getTaxa(Tree tree) {
+		String [] names = new String[tree.getLeafNodeCount()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = tree.getNode(i).getID();
+		}
+		return Arrays.asList(names);
+	}
+
+	/** gives every leaf of the tree the number of its taxon **/
+	public void renumber(Tree tree) {
+		int n = tree.getLeafNodeCount();
+		if (n != numbers.size()) {
+			throw new IllegalArgumentException("Expected a tree with " + numbers.size() + " taxa, not " + n);
+		}
+		// look up all numbers before changing any, since getNode may depend on them
+		Node [] leaves = new Node[n];
+		int [] nrs = new int[n];
+		for (int j = 0; j < n; j++) {
+			leaves[j] = tree.getNode(j);
+			Integer nr = numbers.get(leaves[j].getID());
+			if (nr == null) {
+				throw new IllegalArgumentException("Taxon " + leaves[j].getID() + " is not in the sampled trees");
+			}
+			nrs[j] = nr;
+		}
+		for (int j = 0; j < n; j++) {
+			leaves[j].setNr(nrs[j]);
+		}
+	}
+}
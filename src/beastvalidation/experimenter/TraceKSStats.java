@@ -1,11 +1,17 @@
 package beastvalidation.experimenter;
 
 
-import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.math3.distribution.RealDistribution;
 import org.apache.commons.math3.distribution.UniformRealDistribution;
@@ -16,11 +22,6 @@ import org.apache.commons.math3.exception.NullArgumentException;
 import org.apache.commons.math3.exception.NumberIsTooLargeException;
 import org.apache.commons.math3.exception.TooManyIterationsException;
 import org.apache.commons.math3.exception.util.LocalizedFormats;
-import org.apache.commons.math3.fraction.BigFraction;
-import org.apache.commons.math3.fraction.BigFractionField;
-import org.apache.commons.math3.fraction.FractionConversionException;
-import org.apache.commons.math3.linear.Array2DRowFieldMatrix;
-import org.apache.commons.math3.linear.FieldMatrix;
 import org.apache.commons.math3.util.ArithmeticUtils;
 import org.apache.commons.math3.util.FastMath;
 import org.apache.commons.math3.util.MathArrays;
@@ -29,16 +30,19 @@ import beastfx.app.tools.Application;
 import beast.base.core.Description;
 import beast.base.core.Input;
 import beast.base.core.Input.Validate;
-import beastfx.app.tools.LogAnalyser;
 import beastfx.app.util.LogFile;
 import beast.base.inference.Runnable;
 import beast.base.core.Log;
+import beastvalidation.util.EffectiveSampleSize;
 
 @Description("Calculate Kolmogorov-Smirnof statistic for comparing trace logs")
 public class TraceKSStats extends Runnable {
 	final public Input<LogFile> trace1Input = new Input<>("trace1", "first trace file to compare", Validate.REQUIRED);
 	final public Input<LogFile> trace2Input = new Input<>("trace2", "second trace file to compare", Validate.REQUIRED);
 	final public Input<Integer> burnInPercentageInput = new Input<>("burnin", "percentage of trace logs to used as burn-in (and will be ignored)", 10);
+	final public Input<Boolean> thinInput = new Input<>("thin", "thin each trace to roughly independent draws using its effective sample size before testing, "
+			+ "and report the ESSs with the p-value. Without thinning, autocorrelated draws are treated as independent", false);
+	final public Input<Integer> threadsInput = new Input<>("threads", "number of threads used to compare entries", Runtime.getRuntime().availableProcessors());
 
 	@Override
 	public void initAndValidate() {
@@ -47,41 +51,65 @@ public class TraceKSStats extends Runnable {
 	@Override
 	public void run() throws Exception {
 		int burnInPercentage = burnInPercentageInput.get();
-		LogAnalyser trace1 = new LogAnalyser(trace1Input.get().getAbsolutePath(), burnInPercentage, true, false);
-		LogAnalyser trace2 = new LogAnalyser(trace2Input.get().getAbsolutePath(), burnInPercentage, true, false);
+		TraceStore trace1 = TraceStore.open(trace1Input.get(), burnInPercentage);
+		TraceStore trace2 = TraceStore.open(trace2Input.get(), burnInPercentage);
 		
 		// ensure traces are over the same entries
 		if (trace1.getLabels().size() != trace2.getLabels().size()) {
 			Log.warning("Looks like different log files -- expect things to crash");
 		}
 		String label = "Trace entry";				
-		Log.info(label + (label.length() < CoverageCalculator.space.length() ? CoverageCalculator.space.substring(label.length()) : " ") + " p-value");
-		for (int i = 0; i < trace1.getLabels().size(); i++) {
-			if (!trace1.getLabels().get(i).equals(trace2.getLabels().get(i))) {
-				Log.warning("Columns do not match: " + trace1.getLabels().get(i) + " != " + trace2.getLabels().get(i));
+		boolean thin = thinInput.get();
+		Log.info(label + (label.length() < CoverageCalculator.space.length() ? CoverageCalculator.space.substring(label.length()) : " ") + " p-value" +
+				(thin ? "\tESS1\tESS2" : ""));
+
+		// columns are tested in parallel, and reported in order
+		ExecutorService pool = Executors.newFixedThreadPool(threadsInput.get());
+		try {
+			List<Future<double[]>> results = new ArrayList<>();
+			for (int i = 0; i < trace1.getLabels().size(); i++) {
+				int column = i + 1;
+				results.add(pool.submit(() -> compare(trace1.getTrace(column), trace2.getTrace(column), thin)));
 			}
-			Double [] x = trace1.getTrace(i);
-			Double [] y = trace2.getTrace(i);
-			double [] x0 = toDouble(x);
-			double [] y0 = toDouble(y);
-			
-			
-			double p = kolmogorovSmirnovTest(x0, y0, true);
-			label = trace1.getLabels().get(i);
-			Log.info(label + (label.length() < CoverageCalculator.space.length() ? CoverageCalculator.space.substring(label.length()) : " ") + " " + p);
+			NumberFormat formatter = new DecimalFormat("#0");
+			for (int i = 0; i < trace1.getLabels().size(); i++) {
+				if (!trace1.getLabels().get(i).equals(trace2.getLabels().get(i))) {
+					Log.warning("Columns do not match: " + trace1.getLabels().get(i) + " != " + trace2.getLabels().get(i));
+				}
+				double [] result = Tasks.get(results.get(i));
+				label = trace1.getLabels().get(i);
+				Log.info(label + (label.length() < CoverageCalculator.space.length() ? CoverageCalculator.space.substring(label.length()) : " ") + " " + result[0] +
+						(thin ? "\t" + formatter.format(result[1]) + "\t" + formatter.format(result[2]) : ""));
+			}
+		} finally {
+			pool.shutdown();
 		}
+	}
 
+	/**
+	 * @param thin whether to thin both traces by their ESS first
+	 * @return p-value, and the ESS of both traces if they are thinned
+	 */
+	private double [] compare(double [] x, double [] y, boolean thin) {
+		if (!thin) {
+			return new double[] {kolmogorovSmirnovTest(x, y, true)};
+		}
+		double essX = EffectiveSampleSize.calcESS(x);
+		double essY = EffectiveSampleSize.calcESS(y);
+		double p = kolmogorovSmirnovTest(thin(x, essX), thin(y, essY), true);
+		return new double[] {p, essX, essY};
 	}
 
-	private double[] toDouble(Double[] x) {
-		double [] x0 = new double[x.length];
-		for (int i = 0; i < x.length; i++) {
-			x0[i] = x[i];
+	// every k'th draw, with k such that about ess draws remain
+	private static double [] thin(double [] trace, double ess) {
+		int k = EffectiveSampleSize.calcThinning(trace.length, ess);
+		double [] thinned = new double[(trace.length + k - 1) / k];
+		for (int i = 0; i < thinned.length; i++) {
+			thinned[i] = trace[i * k];
 		}
-		return x0;
+		return thinned;
 	}
 
-	
 	public static void main(String[] args) throws Exception {
 		new Application(new TraceKSStats(), "Trace K-S statistics", args);
 	}
@@ -110,9 +138,29 @@ public class TraceKSStats extends Runnable {
         return approximateP(kolmogorovSmirnovStatistic(x, y), x.length, y.length);
     }
     
+    /**
+     * Walks the lattice of merged samples, where a step to (i, j) takes the i'th value of one sample or
+     * the j'th of the other, and follows the probability that a random path to (i, j) has left the band
+     * where |i/m - j/n| < d. Working with probabilities rather than numbers of paths keeps values in [0, 1],
+     * and following the probability of leaving the band gives small p-values to full precision rather
+     * than as 1 minus a number close to 1.
+     */
     public double exactP(double d, int n, int m, boolean strict) {
-        return 1 - n(m, n, m, n, calculateIntegralD(d, m, n, strict), strict) /
-                binomialCoefficientDouble(n + m, m);
+        final long cnm = calculateIntegralD(d, m, n, strict);
+        // exceeded[j] holds the value for (i - 1, j) until it is replaced by that for (i, j)
+        final double[] exceeded = new double[n + 1];
+        for (int i = 0; i <= m; i++) {
+            for (int j = 0; j <= n; j++) {
+                if (c(i, j, m, n, cnm, strict) == 0) {
+                    exceeded[j] = 1;
+                } else if (i > 0 && j > 0) {
+                    exceeded[j] = (exceeded[j] * i + exceeded[j - 1] * j) / (i + j);
+                } else if (j > 0) {
+                    exceeded[j] = exceeded[j - 1];
+                }
+            }
+        }
+        return exceeded[n];
      }
 
     public static double binomialCoefficientDouble(final int n, final int k)
@@ -208,27 +256,6 @@ public class TraceKSStats extends Runnable {
     }
     
     
-    private static double n(int i, int j, int m, int n, long cnm, boolean strict) {
-        /*
-         * Unwind the recursive definition given in [4].
-         * Compute n(1,1), n(1,2)...n(2,1), n(2,2)... up to n(i,j), one row at a time.
-         * When n(i,*) are being computed, lag[] holds the values of n(i - 1, *).
-         */
-        final double[] lag = new double[n];
-        double last = 0;
-        for (int k = 0; k < n; k++) {
-            lag[k] = c(0, k + 1, m, n, cnm, strict);
-        }
-        for (int k = 1; k <= i; k++) {
-            last = c(k, 0, m, n, cnm, strict);
-            for (int l = 1; l <= j; l++) {
-                lag[l - 1] = c(k, l, m, n, cnm, strict) * (last + lag[l - 1]);
-                last = lag[l - 1];
-            }
-        }
-        return last;
-    }
-    
     private static int c(int i, int j, int m, int n, long cmn, boolean strict) {
         if (strict) {
             return FastMath.abs(i*(long)n - j*(long)m) <= cmn ? 1 : 0;
@@ -249,107 +276,6 @@ public class TraceKSStats extends Runnable {
         }
     }
 
-    private double exactK(double d, int n)
-            throws MathArithmeticException {
-
-            final int k = (int) Math.ceil(n * d);
-
-            final FieldMatrix<BigFraction> H = this.createExactH(d, n);
-            final FieldMatrix<BigFraction> Hpower = H.power(n);
-
-            BigFraction pFrac = Hpower.getEntry(k - 1, k - 1);
-
-            for (int i = 1; i <= n; ++i) {
-                pFrac = pFrac.multiply(i).divide(n);
-            }
-
-            /*
-             * BigFraction.doubleValue converts numerator to double and the denominator to double and
-             * divides afterwards. That gives NaN quite easy. This does not (scale is the number of
-             * digits):
-             */
-            return pFrac.bigDecimalValue(20, BigDecimal.ROUND_HALF_UP).doubleValue();
-        }
-    private FieldMatrix<BigFraction> createExactH(double d, int n)
-            throws NumberIsTooLargeException, FractionConversionException {
-
-            final int k = (int) Math.ceil(n * d);
-            final int m = 2 * k - 1;
-            final double hDouble = k - n * d;
-            if (hDouble >= 1) {
-                throw new NumberIsTooLargeException(hDouble, 1.0, false);
-            }
-            BigFraction h = null;
-            try {
-                h = new BigFraction(hDouble, 1.0e-20, 10000);
-            } catch (final FractionConversionException e1) {
-                try {
-                    h = new BigFraction(hDouble, 1.0e-10, 10000);
-                } catch (final FractionConversionException e2) {
-                    h = new BigFraction(hDouble, 1.0e-5, 10000);
-                }
-            }
-            final BigFraction[][] Hdata = new BigFraction[m][m];
-
-            /*
-             * Start by filling everything with either 0 or 1.
-             */
-            for (int i = 0; i < m; ++i) {
-                for (int j = 0; j < m; ++j) {
-                    if (i - j + 1 < 0) {
-                        Hdata[i][j] = BigFraction.ZERO;
-                    } else {
-                        Hdata[i][j] = BigFraction.ONE;
-                    }
-                }
-            }
-
-            /*
-             * Setting up power-array to avoid calculating the same value twice: hPowers[0] = h^1 ...
-             * hPowers[m-1] = h^m
-             */
-            final BigFraction[] hPowers = new BigFraction[m];
-            hPowers[0] = h;
-            for (int i = 1; i < m; ++i) {
-                hPowers[i] = h.multiply(hPowers[i - 1]);
-            }
-
-            /*
-             * First column and last row has special values (each other reversed).
-             */
-            for (int i = 0; i < m; ++i) {
-                Hdata[i][0] = Hdata[i][0].subtract(hPowers[i]);
-                Hdata[m - 1][i] = Hdata[m - 1][i].subtract(hPowers[m - i - 1]);
-            }
-
-            /*
-             * [1] states: "For 1/2 < h < 1 the bottom left element of the matrix should be (1 - 2*h^m +
-             * (2h - 1)^m )/m!" Since 0 <= h < 1, then if h > 1/2 is sufficient to check:
-             */
-            if (h.compareTo(BigFraction.ONE_HALF) == 1) {
-                Hdata[m - 1][0] = Hdata[m - 1][0].add(h.multiply(2).subtract(1).pow(m));
-            }
-
-            /*
-             * Aside from the first column and last row, the (i, j)-th element is 1/(i - j + 1)! if i -
-             * j + 1 >= 0, else 0. 1's and 0's are already put, so only division with (i - j + 1)! is
-             * needed in the elements that have 1's. There is no need to calculate (i - j + 1)! and then
-             * divide - small steps avoid overflows. Note that i - j + 1 > 0 <=> i + 1 > j instead of
-             * j'ing all the way to m. Also note that it is started at g = 2 because dividing by 1 isn't
-             * really necessary.
-             */
-            for (int i = 0; i < m; ++i) {
-                for (int j = 0; j < i + 1; ++j) {
-                    if (i - j + 1 > 0) {
-                        for (int g = 2; g <= i - j + 1; ++g) {
-                            Hdata[i][j] = Hdata[i][j].divide(g);
-                        }
-                    }
-                }
-            }
-            return new Array2DRowFieldMatrix<BigFraction>(BigFractionField.getInstance(), Hdata);
-        }
-    
     private static boolean hasTies(double[] x, double[] y) {
         final HashSet<Double> values = new HashSet<Double>();
             for (int i = 0; i < x.length; i++) {
@@ -0,0 +1,344 @@
+package beastvalidation.experimenter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import beast.base.core.Log;
+
+/**
+ * Trace log held as memory-mapped columns of doubles. The first time a log is opened it is converted
+ * into a binary file in the temporary directory, or another cache directory, which later runs map
+ * directly as long as the log has not changed since. A change is detected from the length and time
+ * of the log and a checksum of all its bytes, so a log edited in place, or restored with its old time,
+ * is converted again. Reading the log for its checksum is much cheaper than parsing it.
+ *
+ * Columns are numbered as in LogAnalyser: column 0 is the sample number, and column i+1 holds label i.
+ * Entries that are not numbers are stored as indices into the list of distinct values of their column,
+ * given by getRanges().
+ */
+public class TraceStore implements Closeable {
+	final static int MAGIC = 0x54524143;
+	final static int VERSION = 3;
+	final static String SUFFIX = ".traces";
+
+	private String [] columnNames;
+	private List<String> labels;
+	private Map<String, Integer> columnIndex;
+	private List<String> [] ranges;
+	private DoubleBuffer [] columns;
+	private int rowCount;
+	private int burnIn;
+	private FileChannel channel;
+
+	private TraceStore() {
+	}
+
+	/**
+	 * Opens the traces of a log file, converting it first if there is no up to date binary copy in the temporary directory.
+	 * @param burnInPercentage percentage of samples at the start of the log to leave out
+	 */
+	public static TraceStore open(File log, int burnInPercentage) throws IOException {
+		return open(log, burnInPercentage, new File(System.getProperty("java.io.tmpdir")));
+	}
+
+	/** as open(log, burnInPercentage), with the binary copy kept in cacheDir **/
+	public static TraceStore open(File log, int burnInPercentage, File cacheDir) throws IOException {
+		if (!log.exists()) {
+			throw new IOException("Could not find log file " + log.getPath());
+		}
+		File cache = getCacheFile(log, cacheDir);
+		TraceStore store = new TraceStore();
+		if (!cache.exists() || !store.map(cache, log)) {
+			convert(log, cache);
+			if (!store.map(cache, log)) {
+				throw new IOException("Could not read " + cache.getPath() + " just after writing it");
+			}
+		}
+		store.burnIn = store.rowCount * burnInPercentage / 100;
+		return store;
+	}
+
+	/** file in cacheDir named after the log and a digest of its path, so logs with the same name do not share a cache **/
+	static File getCacheFile(File log, File cacheDir) {
+		try {
+			byte [] digest = MessageDigest.getInstance("SHA-256").digest(log.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+			StringBuilder b = new StringBuilder(log.getName()).append('-');
+			for (int i = 0; i < 8; i++) {
+				b.append(String.format("%02x", digest[i]));
+			}
+			return new File(cacheDir, b.append(SUFFIX).toString());
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** checksum of all bytes of the log **/
+	static long checksum(File log) throws IOException {
+		CRC32 crc = new CRC32();
+		byte [] bytes = new byte[64 * 1024];
+		try (FileInputStream in = new FileInputStream(log)) {
+			int count;
+			while ((count = in.read(bytes)) > 0) {
+				crc.update(bytes, 0, count);
+			}
+		}
+		return crc.getValue();
+	}
+
+	/** labels of all columns except the first, as LogAnalyser.getLabels() **/
+	public List<String> getLabels() {
+		return labels;
+	}
+
+	/** @return column of the label, or -1 if there is no such column **/
+	public int indexOf(String label) {
+		Integer index = columnIndex.get(label);
+		return index == null ? -1 : index;
+	}
+
+	/** number of samples after burn-in **/
+	public int getSampleCount() {
+		return rowCount - burnIn;
+	}
+
+	/** read-only view of a column after burn-in, without copying it **/
+	public DoubleBuffer getColumn(int index) {
+		DoubleBuffer column = columns[index].duplicate();
+		column.position(burnIn);
+		return column.slice();
+	}
+
+	public double [] getTrace(int index) {
+		double [] trace = new double[rowCount - burnIn];
+		getColumn(index).get(trace);
+		return trace;
+	}
+
+	/** @throws ArrayIndexOutOfBoundsException if there is no such column, as LogAnalyser does **/
+	public double [] getTrace(String label) {
+		int index = indexOf(label);
+		if (index < 0) {
+			throw new ArrayIndexOutOfBoundsException("No column " + label);
+		}
+		return getTrace(index);
+	}
+
+	/** distinct values of columns holding entries that are not numbers, by column; empty for numeric columns **/
+	public List<String> [] getRanges() {
+		return ranges;
+	}
+
+	@Override
+	public void close() throws IOException {
+		columns = null;
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	/** maps the cache, or returns false if it is not a cache of the log as it is now **/
+	private boolean map(File cache, File log) throws IOException {
+		long dataOffset;
+		try (RandomAccessFile file = new RandomAccessFile(cache, "r")) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(file.getChannel())));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION ||
+					in.readLong() != log.length() || in.readLong() != log.lastModified() || in.readLong() != checksum(log)) {
+				return false;
+			}
+			rowCount = in.readInt();
+			int columnCount = in.readInt();
+			dataOffset = in.readLong();
+			long rangesOffset = in.readLong();
+			columnNames = new String[columnCount];
+			for (int i = 0; i < columnCount; i++) {
+				columnNames[i] = in.readUTF();
+			}
+
+			file.seek(rangesOffset);
+			in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(file.getChannel())));
+			ranges = newRanges(columnCount);
+			for (int i = 0; i < columnCount; i++) {
+				int count = in.readInt();
+				for (int j = 0; j < count; j++) {
+					ranges[i].add(in.readUTF());
+				}
+			}
+		} catch (IOException e) {
+			// an unreadable cache is rebuilt
+			Log.warning("Ignoring trace cache " + cache.getPath() + ": " + e.getMessage());
+			return false;
+		}
+
+		channel = FileChannel.open(cache.toPath());
+		columns = new DoubleBuffer[columnNames.length];
+		long columnBytes = (long) rowCount * Double.BYTES;
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + i * columnBytes, columnBytes).asDoubleBuffer();
+		}
+
+		labels = new ArrayList<>(Arrays.asList(columnNames).subList(1, columnNames.length));
+		columnIndex = new HashMap<>();
+		for (int i = columnNames.length - 1; i >= 0; i--) {
+			columnIndex.put(columnNames[i], i);
+		}
+		return true;
+	}
+
+	/** converts a tab separated log to a binary column file, written under another name first so a partial file is never read **/
+	static void convert(File log, File cache) throws IOException {
+		Log.warning("Converting " + log.getPath() + " to " + cache.getPath());
+		long logLength = log.length();
+		long logModified = log.lastModified();
+		long logChecksum = checksum(log);
+
+		String [] columnNames = null;
+		int rowCount = 0;
+		try (BufferedReader fin = new BufferedReader(new FileReader(log))) {
+			String line;
+			while ((line = fin.readLine()) != null) {
+				if (isData(line)) {
+					if (columnNames == null) {
+						columnNames = line.split("\t");
+					} else {
+						rowCount++;
+					}
+				}
+			}
+		}
+		if (columnNames == null) {
+			throw new IOException("No column labels found in " + log.getPath());
+		}
+		int columnCount = columnNames.length;
+		long columnBytes = (long) rowCount * Double.BYTES;
+		if (columnBytes > Integer.MAX_VALUE) {
+			throw new IOException("Too many samples in " + log.getPath());
+		}
+
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(headerBytes);
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+		header.writeLong(logLength);
+		header.writeLong(logModified);
+		header.writeLong(logChecksum);
+		header.writeInt(rowCount);
+		header.writeInt(columnCount);
+		int offsetsPosition = header.size();
+		header.writeLong(0);
+		header.writeLong(0);
+		for (String name : columnNames) {
+			header.writeUTF(name);
+		}
+		// align columns to doubles
+		long dataOffset = (header.size() + Double.BYTES - 1) / Double.BYTES * Double.BYTES;
+		long rangesOffset = dataOffset + columnCount * columnBytes;
+
+		// a name of its own, so tools converting the same log at the same time do not write to the same file
+		File tmp = File.createTempFile(cache.getName(), ".tmp", cache.getParentFile());
+		List<String> [] ranges = newRanges(columnCount);
+		try (RandomAccessFile file = new RandomAccessFile(tmp, "rw");
+				FileChannel channel = file.getChannel()) {
+			file.setLength(rangesOffset);
+			DoubleBuffer [] columns = new DoubleBuffer[columnCount];
+			for (int i = 0; i < columnCount; i++) {
+				columns[i] = channel.map(FileChannel.MapMode.READ_WRITE, dataOffset + i * columnBytes, columnBytes).asDoubleBuffer();
+			}
+
+			List<Map<String, Integer>> rangeIndex = new ArrayList<>();
+			for (int i = 0; i < columnCount; i++) {
+				rangeIndex.add(new HashMap<>());
+			}
+			try (BufferedReader fin = new BufferedReader(new FileReader(log))) {
+				String line;
+				boolean headerSeen = false;
+				int row = 0;
+				while ((line = fin.readLine()) != null && row < rowCount) {
+					if (!isData(line)) {
+						continue;
+					}
+					if (!headerSeen) {
+						headerSeen = true;
+						continue;
+					}
+					String [] strs = line.split("\t");
+					for (int i = 0; i < columnCount; i++) {
+						double value = Double.NaN;
+						if (i < strs.length) {
+							try {
+								value = Double.parseDouble(strs[i]);
+							} catch (NumberFormatException e) {
+								Integer index = rangeIndex.get(i).get(strs[i]);
+								if (index == null) {
+									index = ranges[i].size();
+									ranges[i].add(strs[i]);
+									rangeIndex.get(i).put(strs[i], index);
+								}
+								value = index;
+							}
+						}
+						columns[i].put(row, value);
+					}
+					row++;
+				}
+			}
+
+			ByteArrayOutputStream rangeBytes = new ByteArrayOutputStream();
+			DataOutputStream rangeData = new DataOutputStream(rangeBytes);
+			for (List<String> range : ranges) {
+				rangeData.writeInt(range.size());
+				for (String str : range) {
+					rangeData.writeUTF(str);
+				}
+			}
+			rangeData.flush();
+			channel.write(ByteBuffer.wrap(rangeBytes.toByteArray()), rangesOffset);
+
+			header.flush();
+			ByteBuffer headerBuffer = ByteBuffer.wrap(headerBytes.toByteArray());
+			headerBuffer.putLong(offsetsPosition, dataOffset);
+			headerBuffer.putLong(offsetsPosition + Long.BYTES, rangesOffset);
+			channel.write(headerBuffer, 0);
+			channel.force(false);
+		}
+		Files.move(tmp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	// lines that are neither comments nor empty, as read by LogAnalyser
+	private static boolean isData(String line) {
+		return !line.startsWith("#") && line.trim().length() > 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<String> [] newRanges(int columnCount) {
+		List<String> [] ranges = new List[columnCount];
+		for (int i = 0; i < columnCount; i++) {
+			ranges[i] = new ArrayList<>();
+		}
+		return ranges;
+	}
+}
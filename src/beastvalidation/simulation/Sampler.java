@@ -4,4 +4,12 @@ import beast.base.inference.StateNode;
 
 public interface Sampler {
     public void nextState(int sampleNr);
+
+    /** State that later samples depend on, for checkpointing, or null if every sample is drawn afresh **/
+    public default String getCheckpointState(){
+        return null;
+    }
+
+    public default void restoreCheckpointState(String state){
+    }
 }
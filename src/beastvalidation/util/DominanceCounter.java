@@ -0,0 +1,157 @@
+package beastvalidation.util;
+
+import java.util.Arrays;
+
+/**
+ * Counts, for each of a set of points, the total weight of the points it dominates, i.e. of the points that are less
+ * than or equal to it in every dimension. This gives unnormalised multivariate empirical CDFs at all points.
+ * One dimension is done by sorting, two by a sweep over the first dimension with a Fenwick tree over the second,
+ * and every further dimension is removed by divide and conquer on its median, as in a range tree.
+ * That takes O(N log^(d-1) N) time and O(N) memory for N points in d dimensions.
+ * Counting does not change the counter, so it can be done from several threads at once.
+ */
+public class DominanceCounter {
+
+    private final int n;
+    private final int d;
+    // ranks[dim][i] is the dense rank of point i in dimension dim, with tied values getting the same rank
+    private final int[][] ranks;
+    private final int lastRankCount;
+
+    public DominanceCounter(double[][] points){
+        n = points.length;
+        d = n > 0 ? points[0].length : 1;
+        if(d < 1) throw new IllegalArgumentException("Points must have at least one dimension");
+
+        ranks = new int[d][n];
+        int rankCount = 0;
+        double[] values = new double[n];
+        for(int dim = 0; dim < d; dim++){
+            for(int i = 0; i < n; i++) values[i] = points[i][dim];
+            double[] distinct = Arrays.stream(values).sorted().distinct().toArray();
+            for(int i = 0; i < n; i++) ranks[dim][i] = Arrays.binarySearch(distinct, values[i]);
+            rankCount = distinct.length;
+        }
+        lastRankCount = rankCount;
+    }
+
+    public int getPointCount(){
+        return n;
+    }
+
+    /**
+     * @param weights weight of each point
+     * @param out receives, for each point i, the sum of weights of points k with points[k] <= points[i] in every dimension, including i itself
+     */
+    public void count(int[] weights, long[] out){
+        Arrays.fill(out, 0, n, 0L);
+        int nonZero = 0;
+        for(int i = 0; i < n; i++) if(weights[i] != 0) nonZero++;
+        int[] updates = new int[nonZero];
+        int[] queries = new int[n];
+        for(int i = 0, k = 0; i < n; i++){
+            if(weights[i] != 0) updates[k++] = i;
+            queries[i] = i;
+        }
+        solve(updates, queries, 0, weights, out, new long[lastRankCount + 1]);
+    }
+
+    // adds to out[q], for each q in queries, the weights of the updates u with ranks[dim'][u] <= ranks[dim'][q] for all dim' >= dim
+    private void solve(int[] updates, int[] queries, int dim, int[] weights, long[] out, long[] fenwick){
+        if(updates.length == 0 || queries.length == 0) return;
+        if(dim == d - 1){
+            sweep1D(updates, queries, weights, out);
+            return;
+        }
+        if(dim == d - 2){
+            sweep2D(updates, queries, weights, out, fenwick);
+            return;
+        }
+
+        int[] rank = ranks[dim];
+        int[] all = new int[updates.length + queries.length];
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for(int k = 0; k < updates.length; k++) all[k] = rank[updates[k]];
+        for(int k = 0; k < queries.length; k++) all[updates.length + k] = rank[queries[k]];
+        for(int r: all){
+            min = Math.min(min, r);
+            max = Math.max(max, r);
+        }
+        if(min == max){
+            // this dimension does not separate any of the points
+            solve(updates, queries, dim + 1, weights, out, fenwick);
+            return;
+        }
+        Arrays.sort(all);
+        int split = all[(all.length - 1) / 2];
+        if(split == max) split = max - 1;
+
+        int[][] updateParts = partition(updates, rank, split);
+        int[][] queryParts = partition(queries, rank, split);
+        // lower half updates are dominated in this dimension by every upper half query
+        solve(updateParts[0], queryParts[1], dim + 1, weights, out, fenwick);
+        solve(updateParts[0], queryParts[0], dim, weights, out, fenwick);
+        solve(updateParts[1], queryParts[1], dim, weights, out, fenwick);
+    }
+
+    private static int[][] partition(int[] points, int[] rank, int split){
+        int lowCount = 0;
+        for(int i: points) if(rank[i] <= split) lowCount++;
+        int[] low = new int[lowCount];
+        int[] high = new int[points.length - lowCount];
+        int l = 0, h = 0;
+        for(int i: points){
+            if(rank[i] <= split) low[l++] = i;
+            else high[h++] = i;
+        }
+        return new int[][]{ low, high };
+    }
+
+    private void sweep1D(int[] updates, int[] queries, int[] weights, long[] out){
+        int[] rank = ranks[d - 1];
+        long[] sortedUpdates = sortByRank(updates, rank);
+        long[] sortedQueries = sortByRank(queries, rank);
+        long total = 0;
+        int u = 0;
+        for(long q: sortedQueries){
+            int query = (int) q;
+            while(u < sortedUpdates.length && (sortedUpdates[u] >>> 32) <= rank[query]){
+                total += weights[(int) sortedUpdates[u++]];
+            }
+            out[query] += total;
+        }
+    }
+
+    private void sweep2D(int[] updates, int[] queries, int[] weights, long[] out, long[] fenwick){
+        int[] rank = ranks[d - 2];
+        int[] lastRank = ranks[d - 1];
+        long[] sortedUpdates = sortByRank(updates, rank);
+        long[] sortedQueries = sortByRank(queries, rank);
+        int u = 0;
+        for(long q: sortedQueries){
+            int query = (int) q;
+            while(u < sortedUpdates.length && (sortedUpdates[u] >>> 32) <= rank[query]){
+                int update = (int) sortedUpdates[u++];
+                for(int k = lastRank[update] + 1; k < fenwick.length; k += k & -k) fenwick[k] += weights[update];
+            }
+            long total = 0;
+            for(int k = lastRank[query] + 1; k > 0; k -= k & -k) total += fenwick[k];
+            out[query] += total;
+        }
+        // leave the tree empty for the next sweep
+        for(int k = 0; k < u; k++){
+            int update = (int) sortedUpdates[k];
+            for(int j = lastRank[update] + 1; j < fenwick.length; j += j & -j) fenwick[j] -= weights[update];
+        }
+    }
+
+    // packs rank and point index into one long, so that a primitive sort orders points by rank
+    private static long[] sortByRank(int[] points, int[] rank){
+        long[] sorted = new long[points.length];
+        for(int k = 0; k < points.length; k++){
+            sorted[k] = ((long) rank[points[k]] << 32) | points[k];
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,67 @@
+package beastvalidation.util;
+
+import org.apache.commons.math3.transform.DftNormalization;
+import org.apache.commons.math3.transform.FastFourierTransformer;
+import org.apache.commons.math3.transform.TransformType;
+
+/**
+ * Effective sample size of an MCMC trace, n / tau, where tau is the integrated autocorrelation time.
+ * Autocorrelations at all lags are found at once with a zero-padded FFT, in O(n log n), and summed with
+ * Geyer's initial positive sequence: sums of autocorrelations at lags 2k and 2k+1 are added as long as
+ * they are positive.
+ */
+public class EffectiveSampleSize {
+
+    private EffectiveSampleSize(){
+    }
+
+    /** @return effective sample size, or NaN if the trace is constant **/
+    public static double calcESS(double[] trace){
+        int n = trace.length;
+        if(n < 2) return n;
+        double[] rho = calcAutocorrelation(trace);
+        if(Double.isNaN(rho[0])) return Double.NaN;
+
+        double tau = -1;
+        for(int lag = 0; lag + 1 < n; lag += 2){
+            double pair = rho[lag] + rho[lag + 1];
+            if(pair <= 0) break;
+            tau += 2 * pair;
+        }
+        // tau can be below 1 for anti-correlated traces, but the sample size is not more than n
+        return n / Math.max(tau, 1.0);
+    }
+
+    /** autocorrelation of the trace at lags 0 to n-1, all NaN if the trace is constant **/
+    public static double[] calcAutocorrelation(double[] trace){
+        int n = trace.length;
+        double mean = 0;
+        for(double x: trace) mean += x;
+        mean /= n;
+
+        // padding to at least 2n keeps the circular correlation of the FFT from wrapping around
+        int size = Integer.highestOneBit(Math.max(1, 2 * n - 1)) << 1;
+        double[][] data = new double[2][size];
+        for(int i = 0; i < n; i++) data[0][i] = trace[i] - mean;
+
+        FastFourierTransformer.transformInPlace(data, DftNormalization.STANDARD, TransformType.FORWARD);
+        for(int i = 0; i < size; i++){
+            data[0][i] = data[0][i] * data[0][i] + data[1][i] * data[1][i];
+            data[1][i] = 0;
+        }
+        FastFourierTransformer.transformInPlace(data, DftNormalization.STANDARD, TransformType.INVERSE);
+
+        double[] rho = new double[n];
+        double variance = data[0][0];
+        for(int lag = 0; lag < n; lag++){
+            rho[lag] = variance > 0 ? data[0][lag] / variance : Double.NaN;
+        }
+        return rho;
+    }
+
+    /** @return number of samples between draws that are roughly independent for a trace of this length and ESS, at least 1 **/
+    public static int calcThinning(int sampleCount, double ess){
+        if(Double.isNaN(ess) || ess <= 0) return 1;
+        return Math.max(1, (int) Math.round(sampleCount / ess));
+    }
+}
@@ -0,0 +1,86 @@
+package beastvalidation.util;
+
+/**
+ * Running mean and covariance of multivariate samples, updated one sample at a time with Welford's algorithm.
+ * Memory is O(d^2) however many samples are added.
+ */
+public class MomentAccumulator {
+
+    private final int d;
+    private long n;
+    private final double[] mean;
+    // sum over samples of (x_j - mean_j)(x_k - mean_k)
+    private final double[][] coMoment;
+    private final double[] delta;
+
+    public MomentAccumulator(int d){
+        this.d = d;
+        mean = new double[d];
+        coMoment = new double[d][d];
+        delta = new double[d];
+    }
+
+    public void add(double[] x){
+        n++;
+        for(int j = 0; j < d; j++){
+            delta[j] = x[j] - mean[j];
+            mean[j] += delta[j] / n;
+        }
+        for(int j = 0; j < d; j++){
+            for(int k = 0; k <= j; k++){
+                coMoment[j][k] += delta[j] * (x[k] - mean[k]);
+            }
+        }
+    }
+
+    /** Adds the samples of another accumulator, as if they had been added to this one **/
+    public void add(MomentAccumulator other){
+        if(other.d != d) throw new IllegalArgumentException("Cannot combine moments of different dimensions");
+        if(other.n == 0) return;
+        long total = n + other.n;
+        double weight = (double) n * other.n / total;
+        for(int j = 0; j < d; j++) delta[j] = other.mean[j] - mean[j];
+        for(int j = 0; j < d; j++){
+            for(int k = 0; k <= j; k++){
+                coMoment[j][k] += other.coMoment[j][k] + delta[j] * delta[k] * weight;
+            }
+            mean[j] += delta[j] * other.n / total;
+        }
+        n = total;
+    }
+
+    public long getCount(){
+        return n;
+    }
+
+    public int getDimension(){
+        return d;
+    }
+
+    public double[] getMean(){
+        return mean.clone();
+    }
+
+    /** Maximum likelihood (divided by n) covariance about the sample mean **/
+    public double[][] getCovariance(){
+        double[][] cov = new double[d][d];
+        for(int j = 0; j < d; j++){
+            for(int k = 0; k <= j; k++){
+                cov[j][k] = coMoment[j][k] / n;
+                cov[k][j] = cov[j][k];
+            }
+        }
+        return cov;
+    }
+
+    /** Mean of x x^T, which is the maximum likelihood covariance about zero **/
+    public double[][] getSecondMoment(){
+        double[][] moment = getCovariance();
+        for(int j = 0; j < d; j++){
+            for(int k = 0; k < d; k++){
+                moment[j][k] += mean[j] * mean[k];
+            }
+        }
+        return moment;
+    }
+}
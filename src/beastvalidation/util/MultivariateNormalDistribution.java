@@ -6,12 +6,17 @@ import org.apache.commons.math3.util.FastMath;
 import org.apache.commons.math3.util.MathArrays;
 
 public class MultivariateNormalDistribution  {
+    // Cholesky thresholds relative to the scale of the matrix, so covariances with tiny variances are not rejected
+    private static final double RELATIVE_SYMMETRY_THRESHOLD = 1e-12;
+    private static final double RELATIVE_POSITIVITY_THRESHOLD = 1e-15;
+
     private int dim;
     private final double[] means;
-    private final RealMatrix covarianceMatrix;
-    private final RealMatrix covarianceMatrixInverse;
-    private final double covarianceMatrixDeterminant;
-    private final RealMatrix samplingMatrix;
+    // lower triangle of the Cholesky factor L of the covariance, row by row
+    private final double[][] choleskyL;
+    private final double logNormalisingConstant;
+    // scratch space for solving L z = x - mean, one per thread so that densities can be evaluated concurrently
+    private final ThreadLocal<double[]> workspace;
 
     public MultivariateNormalDistribution(double[] means, double[][] covariances) throws SingularMatrixException, DimensionMismatchException, NonPositiveDefiniteMatrixException {
         dim = means.length;
@@ -25,36 +30,25 @@ public class MultivariateNormalDistribution  {
             }
 
             this.means = MathArrays.copyOf(means);
-            this.covarianceMatrix = new Array2DRowRealMatrix(covariances);
-            EigenDecomposition covMatDec = new EigenDecomposition(this.covarianceMatrix);
-            this.covarianceMatrixInverse = covMatDec.getSolver().getInverse();
-            this.covarianceMatrixDeterminant = covMatDec.getDeterminant();
-            double[] covMatEigenvalues = covMatDec.getRealEigenvalues();
-
-            for(int i = 0; i < covMatEigenvalues.length; ++i) {
-                if (covMatEigenvalues[i] < 0.0D) {
-                    throw new NonPositiveDefiniteMatrixException(covMatEigenvalues[i], i, 0.0D);
-                }
-            }
-
-            Array2DRowRealMatrix covMatEigenvectors = new Array2DRowRealMatrix(dim, dim);
-
-            for(int v = 0; v < dim; ++v) {
-                double[] evec = covMatDec.getEigenvector(v).toArray();
-                covMatEigenvectors.setColumn(v, evec);
+            double scale = 0.0D;
+            for(int i = 0; i < dim; ++i) {
+                scale = FastMath.max(scale, FastMath.abs(covariances[i][i]));
             }
+            RealMatrix L = new CholeskyDecomposition(new Array2DRowRealMatrix(covariances),
+                    RELATIVE_SYMMETRY_THRESHOLD, RELATIVE_POSITIVITY_THRESHOLD * scale).getL();
 
-            RealMatrix tmpMatrix = covMatEigenvectors.transpose();
-
-            for(int row = 0; row < dim; ++row) {
-                double factor = FastMath.sqrt(covMatEigenvalues[row]);
-
-                for(int col = 0; col < dim; ++col) {
-                    tmpMatrix.multiplyEntry(row, col, factor);
+            this.choleskyL = new double[dim][];
+            double logDeterminant = 0.0D;
+            for(int i = 0; i < dim; ++i) {
+                this.choleskyL[i] = new double[i + 1];
+                for(int j = 0; j <= i; ++j) {
+                    this.choleskyL[i][j] = L.getEntry(i, j);
                 }
+                logDeterminant += 2.0D * FastMath.log(this.choleskyL[i][i]);
             }
 
-            this.samplingMatrix = covMatEigenvectors.multiply(tmpMatrix);
+            this.logNormalisingConstant = -0.5D * (dim * FastMath.log(6.283185307179586D) + logDeterminant);
+            this.workspace = ThreadLocal.withInitial(() -> new double[dim]);
         }
     }
 
@@ -66,24 +60,55 @@ public class MultivariateNormalDistribution  {
         if (vals.length != dim) {
             throw new DimensionMismatchException(vals.length, dim);
         } else {
-            return -0.5D * (dim * FastMath.log(6.283185307179586D) + FastMath.log(covarianceMatrixDeterminant)) + getLogExponentTerm(vals);
+            return logNormalisingConstant + getLogExponentTerm(vals, 0, workspace.get());
         }
     }
 
-    private double getLogExponentTerm(double[] values) {
-        double[] centered = new double[values.length];
+    /**
+     * Log densities of many points at once.
+     * @param points points, one per row
+     * @param out receives the log density of each point
+     */
+    public void logDensity(double[][] points, double[] out){
+        double[] z = workspace.get();
+        for(int p = 0; p < points.length; ++p) {
+            if (points[p].length != dim) {
+                throw new DimensionMismatchException(points[p].length, dim);
+            }
+            out[p] = logNormalisingConstant + getLogExponentTerm(points[p], 0, z);
+        }
+    }
 
-        for(int i = 0; i < centered.length; ++i) {
-            centered[i] = values[i] - means[i];
+    /**
+     * Log densities of points stored one after the other in a flat array.
+     * @param points coordinates of the points, dim values per point
+     * @param out receives the log density of each point
+     */
+    public void logDensity(double[] points, double[] out){
+        if (points.length % dim != 0) {
+            throw new DimensionMismatchException(points.length % dim, dim);
+        }
+        double[] z = workspace.get();
+        for(int p = 0, offset = 0; offset < points.length; ++p, offset += dim) {
+            out[p] = logNormalisingConstant + getLogExponentTerm(points, offset, z);
         }
+    }
 
-        double[] preMultiplied = this.covarianceMatrixInverse.preMultiply(centered);
+    // solves L z = x - mean by forward substitution, so that the exponent is -|z|^2 / 2
+    private double getLogExponentTerm(double[] values, int offset, double[] z) {
         double sum = 0.0D;
 
-        for(int i = 0; i < preMultiplied.length; ++i) {
-            sum += preMultiplied[i] * centered[i];
+        for(int i = 0; i < dim; ++i) {
+            double[] row = choleskyL[i];
+            double zi = values[offset + i] - means[i];
+            for(int j = 0; j < i; ++j) {
+                zi -= row[j] * z[j];
+            }
+            zi /= row[i];
+            z[i] = zi;
+            sum += zi * zi;
         }
 
         return -0.5D * sum;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,225 @@
+package beastvalidation.validation;
+
+import beastvalidation.validation.samples.SampleStore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Append-only binary checkpoint of a StochasticValidationTest run.
+ * After a header describing the run, each record holds the statistic values of the samples drawn since the
+ * previous record, the random number seed sampling continues with, and the sampler states.
+ * Records are written on a background thread. A record that was only partly written is ignored on resume.
+ */
+public class Checkpoint {
+
+    private static final int MAGIC = 0x53565443;
+    private static final int VERSION = 1;
+    private static final int END_OF_RECORD = 0x454e4421;
+
+    /** What is needed to continue a run from a checkpoint **/
+    public static class State {
+        public final int sampleCount;
+        public final long seed;
+        public final String[] samplerStates;
+
+        State(int sampleCount, long seed, String[] samplerStates){
+            this.sampleCount = sampleCount;
+            this.seed = seed;
+            this.samplerStates = samplerStates;
+        }
+    }
+
+    private final File file;
+    private final int nSamples;
+    private final int[] dimensions;
+
+    private DataOutputStream out;
+    private ExecutorService writer;
+    private Future<?> lastWrite;
+
+    public Checkpoint(File file, int nSamples, int[] dimensions){
+        this.file = file;
+        this.nSamples = nSamples;
+        this.dimensions = dimensions;
+    }
+
+    /**
+     * Reads all complete records into the stores and drops anything after them from the file.
+     * @return state after the last complete record, or null if there is nothing to resume from
+     */
+    public State restore(List<SampleStore> stores) throws IOException {
+        if(!file.exists()) return null;
+
+        long validLength;
+        State state = null;
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))){
+            try {
+                readHeader(in);
+            } catch (EOFException e) {
+                return null;
+            }
+            validLength = headerLength();
+            try {
+                while(true){
+                    int from = in.readInt();
+                    int to = in.readInt();
+                    if(from < 0 || to > nSamples || from > to) throw new IOException("Corrupt checkpoint record in " + file.getPath());
+                    long seed = in.readLong();
+                    long recordLength = 2 * Integer.BYTES + Long.BYTES;
+                    double[][] rows = new double[stores.size()][];
+                    for(int s = 0; s < stores.size(); s++){
+                        rows[s] = new double[(to - from) * dimensions[s]];
+                        for(int k = 0; k < rows[s].length; k++) rows[s][k] = in.readDouble();
+                        recordLength += (long) rows[s].length * Double.BYTES;
+                    }
+                    String[] samplerStates = new String[in.readInt()];
+                    recordLength += Integer.BYTES;
+                    for(int k = 0; k < samplerStates.length; k++){
+                        int length = in.readInt();
+                        recordLength += Integer.BYTES;
+                        if(length >= 0){
+                            byte[] bytes = new byte[length];
+                            in.readFully(bytes);
+                            samplerStates[k] = new String(bytes, StandardCharsets.UTF_8);
+                            recordLength += length;
+                        }
+                    }
+                    if(in.readInt() != END_OF_RECORD) throw new IOException("Corrupt checkpoint record in " + file.getPath());
+                    recordLength += Integer.BYTES;
+
+                    for(int s = 0; s < stores.size(); s++){
+                        SampleStore store = stores.get(s);
+                        int k = 0;
+                        for(int i = from; i < to; i++){
+                            for(int dim = 0; dim < dimensions[s]; dim++){
+                                store.setValue(i, dim, rows[s][k++]);
+                            }
+                        }
+                    }
+                    validLength += recordLength;
+                    state = new State(to, seed, samplerStates);
+                }
+            } catch (EOFException e) {
+                // the run stopped while the last record was written
+            }
+        }
+
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw")){
+            raf.setLength(validLength);
+        }
+        return state;
+    }
+
+    /** Opens the file for writing records, either after those already in it or replacing it **/
+    public void open(boolean append) throws IOException {
+        append = append && file.exists() && file.length() >= headerLength();
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append)));
+        if(!append){
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(nSamples);
+            out.writeInt(dimensions.length);
+            for(int dimension: dimensions) out.writeInt(dimension);
+            out.flush();
+        }
+        writer = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Queues a record with the values of samples from (inclusive) to to (exclusive). The values are copied
+     * before this returns, so sampling can carry on while the record is written.
+     */
+    public void write(List<SampleStore> stores, int from, int to, long seed, String[] samplerStates) throws IOException {
+        double[][] rows = new double[stores.size()][];
+        for(int s = 0; s < stores.size(); s++){
+            SampleStore store = stores.get(s);
+            rows[s] = new double[(to - from) * dimensions[s]];
+            int k = 0;
+            for(int i = from; i < to; i++){
+                for(int dim = 0; dim < dimensions[s]; dim++){
+                    rows[s][k++] = store.getValue(i, dim);
+                }
+            }
+        }
+
+        // at most one record waits to be written, so a slow disk cannot make copies pile up
+        waitForLastWrite();
+        lastWrite = writer.submit(() -> {
+            out.writeInt(from);
+            out.writeInt(to);
+            out.writeLong(seed);
+            for(double[] values: rows){
+                for(double value: values) out.writeDouble(value);
+            }
+            out.writeInt(samplerStates.length);
+            for(String samplerState: samplerStates){
+                if(samplerState == null){
+                    out.writeInt(-1);
+                } else {
+                    byte[] bytes = samplerState.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+            out.writeInt(END_OF_RECORD);
+            out.flush();
+            return null;
+        });
+    }
+
+    public void close() throws IOException {
+        if(out == null) return;
+        try {
+            waitForLastWrite();
+        } finally {
+            writer.shutdown();
+            out.close();
+            out = null;
+        }
+    }
+
+    private void waitForLastWrite() throws IOException {
+        if(lastWrite == null) return;
+        try {
+            lastWrite.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing checkpoint", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not write checkpoint to " + file.getPath(), e.getCause());
+        } finally {
+            lastWrite = null;
+        }
+    }
+
+    private void readHeader(DataInputStream in) throws IOException {
+        if(in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException(file.getPath() + " is not a checkpoint file");
+        int checkpointSamples = in.readInt();
+        int statisticCount = in.readInt();
+        boolean matches = checkpointSamples == nSamples && statisticCount == dimensions.length;
+        for(int s = 0; s < statisticCount; s++){
+            int dimension = in.readInt();
+            matches = matches && dimension == dimensions[s];
+        }
+        if(!matches) throw new IllegalArgumentException("Checkpoint " + file.getPath() + " was written for a different number of samples or statistics");
+    }
+
+    private long headerLength(){
+        return (long) (4 + dimensions.length) * Integer.BYTES;
+    }
+}
@@ -3,24 +3,53 @@ package beastvalidation.validation;
 import beast.base.core.Input;
 import beast.base.inference.Logger;
 import beast.base.inference.Runnable;
+import beast.base.parser.XMLParser;
+import beast.base.parser.XMLParserException;
+import beast.base.parser.XMLProducer;
+import beast.base.util.Randomizer;
 import beastvalidation.simulation.Sampler;
+import beastvalidation.util.MomentAccumulator;
+import beastvalidation.validation.samples.SampleStore;
+import beastvalidation.validation.samples.SampleView;
 import beastvalidation.validation.statistics.Statistics;
+import beastvalidation.validation.tests.MomentTest;
 import beastvalidation.validation.tests.StatisticalTest;
 import beastvalidation.validation.tests.StatisticalTestType;
+import org.apache.commons.math3.distribution.NormalDistribution;
 
-import java.io.IOException;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class StochasticValidationTest extends Runnable {
 
     private static final double DEFAULT_ALPHA = 1.0 - 1e-3;
     private static final int DEFAULT_N_SAMPLES = 1000;
     private static final int DEFAULT_PRINT_EVERY = 100;
+    private static final int DEFAULT_THREADS = 1;
+    private static final int DEFAULT_LOOKS = 1;
+    private static final double DEFAULT_FUTILITY_LEVEL = 1.0;
+    private static final int DEFAULT_CHECKPOINT_EVERY = 1000;
 
     public Input<Double> alphaInput = new Input<>("alpha", "1 - significance level of test", DEFAULT_ALPHA);
     public Input<Integer> nSamplesInput = new Input<>("nSamples", "Number of samples to use", DEFAULT_N_SAMPLES, Input.Validate.OPTIONAL);
     public Input<Integer> printEveryInput = new Input<>("printEvery", "How regularly sampling progress is reported (-1 for never)", DEFAULT_PRINT_EVERY, Input.Validate.OPTIONAL);
+    public Input<Integer> threadsInput = new Input<>("threads", "Number of threads to draw samples with. Each thread works on its own copy of the samplers and statistics. " +
+            "All threads draw from the one BEAST Randomizer in whatever order they are scheduled, so with more than 1 thread the samples are not reproducible from the seed", DEFAULT_THREADS, Input.Validate.OPTIONAL);
+    public Input<String> sampleStoreInput = new Input<>("sampleStore", "Where sampled statistics are kept: memory, file (a memory mapped temporary file) or auto (file if the samples would take up a large part of the heap)", "auto", new String[]{ "auto", "memory", "file" });
+
+    public Input<Integer> looksInput = new Input<>("looks", "Number of equally spaced points at which the test is performed on the samples drawn so far (1 for a fixed sample size test)", DEFAULT_LOOKS, Input.Validate.OPTIONAL);
+    public Input<String> spendingInput = new Input<>("spending", "How the significance level is spent over the looks: obrienfleming, pocock or linear", "obrienfleming", new String[]{ "obrienfleming", "pocock", "linear" });
+    public Input<Double> futilityLevelInput = new Input<>("futilityLevel", "p value above which sampling stops at a look before the last one and the test passes (1 to never stop early with a pass). " +
+            "A high p value on the first samples does not settle the test, so stopping early loses power to detect an incorrect sampler", DEFAULT_FUTILITY_LEVEL, Input.Validate.OPTIONAL);
+
+    public Input<File> checkpointFileInput = new Input<>("checkpointFile", "File to which sampled statistics and sampler states are appended while sampling. No checkpoints are written if not specified");
+    public Input<Integer> checkpointEveryInput = new Input<>("checkpointEvery", "Number of samples between checkpoints", DEFAULT_CHECKPOINT_EVERY, Input.Validate.OPTIONAL);
+    public Input<Boolean> resumeInput = new Input<>("resume", "Whether to continue from the last checkpoint in checkpointFile, if there is one", false, Input.Validate.OPTIONAL);
 
     public Input<List<Sampler>> samplersInput  = new Input<>("sampler", "Tree samplers to use in testing", new ArrayList<>());
     public Input<List<Statistics>> statisticsInput = new Input<>("statistic", "Statistics from trees to perform test on", new ArrayList<>());
@@ -33,6 +62,16 @@ public class StochasticValidationTest extends Runnable {
     private double alpha;
     private int nSamples;
     private int printEvery;
+    private int threads;
+    private String sampleStore;
+
+    private int looks;
+    private String spending;
+    private double futilityLevel;
+
+    private File checkpointFile;
+    private int checkpointEvery;
+    private boolean resume;
 
     private List<Sampler> samplers;
     private List<Statistics> statistics;
@@ -41,7 +80,13 @@ public class StochasticValidationTest extends Runnable {
     private List<Logger> sampleLoggers;
     private List<Logger> resultLoggers;
 
-    private List<double[][]> samples;
+    private List<SampleStore> samples;
+    // Moments of the statistics drawn by this worker, used instead of the sample stores when the test only needs moments
+    private MomentAccumulator[] moments;
+
+    private List<StochasticValidationTest> workers;
+    private ExecutorService executor;
+    private Checkpoint checkpoint;
 
     public void initAndValidate(){
         alpha = alphaInput.get();
@@ -50,6 +95,21 @@ public class StochasticValidationTest extends Runnable {
         nSamples = nSamplesInput.get();
         printEvery = printEveryInput.get();
 
+        threads = threadsInput.get();
+        if(threads < 1) throw new IllegalArgumentException("threads must be 1 or greater");
+        sampleStore = sampleStoreInput.get().toLowerCase();
+
+        looks = looksInput.get();
+        if(looks < 1 || looks > nSamples) throw new IllegalArgumentException("looks must be between 1 and nSamples");
+        spending = spendingInput.get().toLowerCase();
+        futilityLevel = futilityLevelInput.get();
+        if(futilityLevel <= 0.0 || futilityLevel > 1.0) throw new IllegalArgumentException("futilityLevel must be between 0 and 1");
+
+        checkpointFile = checkpointFileInput.get();
+        checkpointEvery = checkpointEveryInput.get();
+        if(checkpointEvery < 1) throw new IllegalArgumentException("checkpointEvery must be 1 or greater");
+        resume = resumeInput.get();
+
         samplers = samplersInput.get();
         if(samplers.size() < 1) throw new IllegalArgumentException("There must be at least one sampler");
 
@@ -65,51 +125,90 @@ public class StochasticValidationTest extends Runnable {
 
         sampleLoggers = sampleLoggersInput.get();
         resultLoggers = resultLoggersInput.get();
-
-        nSamples = nSamplesInput.get();
-
-        samples = new ArrayList<>(statistics.size());
-        for(int i = 0; i < statistics.size(); i++){
-            samples.add(i, new double[nSamples][statistics.get(0).getDimension()]);
-        }
+        if(threads > 1 && sampleLoggers.size() > 0) throw new IllegalArgumentException("Sample loggers can only be used with a single thread");
 
     }
 
     @Override
-    public void run() throws IOException {
+    public void run() throws Exception {
         System.out.println("Stochastic validation test");
 
+        // Tests that only need moments get them accumulated while sampling, so the samples are not kept.
+        // Checkpoints hold the samples themselves, so they need the sample stores
+        boolean streaming = test instanceof MomentTest && checkpointFile == null;
+        samples = new ArrayList<>(statistics.size());
+        if(!streaming){
+            for(Statistics statistic: statistics){
+                samples.add(SampleStore.create(nSamples, statistic.getDimension(), sampleStore));
+            }
+        }
+
         for(Logger logger: sampleLoggers) logger.init();
 
-        System.out.println("Sampling...");
+        workers = new ArrayList<>(threads);
+        workers.add(this);
+        for(int t = 1; t < threads; t++){
+            workers.add(copy());
+        }
+        executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        if(streaming){
+            for(StochasticValidationTest worker: workers){
+                worker.moments = new MomentAccumulator[statistics.size()];
+                for(int i = 0; i < statistics.size(); i++) worker.moments[i] = new MomentAccumulator(statistics.get(i).getDimension());
+            }
+        }
 
-        for(int i = 0; i < nSamples; i++){
-            if(printEvery != -1 && i % printEvery == 0){
-                System.out.println("Sample " + (i + 1));
+        int drawn = 0;
+        if(checkpointFile != null){
+            int[] dimensions = new int[statistics.size()];
+            for(int i = 0; i < dimensions.length; i++) dimensions[i] = statistics.get(i).getDimension();
+            checkpoint = new Checkpoint(checkpointFile, nSamples, dimensions);
+            Checkpoint.State state = resume ? checkpoint.restore(samples) : null;
+            if(state != null){
+                drawn = state.sampleCount;
+                restoreSamplerStates(state.samplerStates);
+                Randomizer.setSeed(state.seed);
+                System.out.println("Resuming from sample " + (drawn + 1));
             }
+            checkpoint.open(state != null);
+        }
 
-            for(Sampler sampler: samplers) sampler.nextState(i);
+        if(threads > 1) System.out.println("Sampling on " + threads + " threads, samples are not reproducible from the seed");
+        System.out.println("Sampling...");
 
-            for(int statisticIndex = 0; statisticIndex < statistics.size(); statisticIndex++){
-                Statistics statistic = statistics.get(statisticIndex);
-                statistic.updateStatistics(i);
-                double[][] sampleArray = samples.get(statisticIndex);
-                System.arraycopy(statistic.getArrayValues(), 0, sampleArray[i], 0, statistic.getDimension());
-            }
+        int[] lookSizes = getLookSizes();
+        double[] lookLevels = getLookLevels(lookSizes);
+        boolean passed = true;
+        try {
+            for(int look = 0; look < looks; look++){
+                if(lookSizes[look] < drawn) continue;
+                drawSamplesWithCheckpoints(drawn, lookSizes[look]);
+                drawn = lookSizes[look];
 
-            for(Logger logger: sampleLoggers) logger.log(i);
-        }
+                if(looks > 1) System.out.println(String.format("Performing test on %d samples...", drawn));
+                else System.out.println("Performing test...");
 
-        for(Logger logger: sampleLoggers) logger.close();
+                if(streaming) ((MomentTest) test).performTest(getMoments());
+                else test.performTest(getSamples(drawn));
 
-        System.out.println("Performing test...");
+                passed = test.getPValue() >= lookLevels[look];
+                if(!passed || test.getPValue() > futilityLevel) break;
+            }
+        } finally {
+            if(executor != null) executor.shutdown();
+            for(StochasticValidationTest worker: workers){
+                for(Statistics statistic: worker.statistics) statistic.release();
+            }
+            if(checkpoint != null) checkpoint.close();
+            for(SampleStore store: samples) store.close();
+        }
 
-        test.performTest(samples);
+        for(Logger logger: sampleLoggers) logger.close();
 
-        if(test.getPValue() < alpha){
-            System.out.println("Test FAILED");
-        } else {
+        if(passed){
             System.out.println("Test PASSED");
+        } else {
+            System.out.println("Test FAILED");
         }
         System.out.println(String.format("p value: %f", test.getPValue()));
 
@@ -119,8 +218,146 @@ public class StochasticValidationTest extends Runnable {
             logger.close();
         }
 
+    }
 
+    // Number of samples drawn at each look, the last look uses all of them
+    private int[] getLookSizes(){
+        int[] lookSizes = new int[looks];
+        for(int look = 0; look < looks; look++){
+            lookSizes[look] = (int) ((long) nSamples * (look + 1) / looks);
+        }
+        return lookSizes;
+    }
+
+    // Level the p value is compared with at each look. These are increments of an alpha spending function, so they
+    // add up to alpha and the probability of failing a correct sampler at any look is at most alpha
+    private double[] getLookLevels(int[] lookSizes){
+        double significance = alpha;
+        double[] lookLevels = new double[looks];
+        double spent = 0.0;
+        for(int look = 0; look < looks; look++){
+            double t = (double) lookSizes[look] / nSamples;
+            double cumulative;
+            if(spending.equals("obrienfleming")){
+                NormalDistribution normal = new NormalDistribution();
+                double z = normal.inverseCumulativeProbability(1.0 - significance / 2.0);
+                cumulative = 2.0 * (1.0 - normal.cumulativeProbability(z / Math.sqrt(t)));
+            } else if(spending.equals("pocock")){
+                cumulative = significance * Math.log(1.0 + (Math.E - 1.0) * t);
+            } else {
+                cumulative = significance * t;
+            }
+            if(look == looks - 1) cumulative = significance;
+            lookLevels[look] = Math.max(cumulative - spent, 0.0);
+            spent = Math.max(cumulative, spent);
+        }
+        return lookLevels;
+    }
+
+    private SampleView[] getSamples(int drawn){
+        SampleView[] views = new SampleView[samples.size()];
+        for(int i = 0; i < views.length; i++){
+            views[i] = samples.get(i).prefix(drawn);
+        }
+        return views;
+    }
+
+    // Moments of all samples drawn so far, merged over the workers in the order of their blocks
+    private MomentAccumulator[] getMoments(){
+        MomentAccumulator[] merged = new MomentAccumulator[statistics.size()];
+        for(int i = 0; i < merged.length; i++){
+            merged[i] = new MomentAccumulator(statistics.get(i).getDimension());
+            for(StochasticValidationTest worker: workers) merged[i].add(worker.moments[i]);
+        }
+        return merged;
+    }
+
+    private void drawSamplesWithCheckpoints(int from, int to) throws Exception {
+        while(from < to){
+            int next = checkpoint == null ? to : Math.min(to, (from / checkpointEvery + 1) * checkpointEvery);
+            drawSamples(from, next);
+            if(checkpoint != null){
+                // sampling continues from a recorded seed, so a resumed run draws what this run would have drawn
+                long seed = Randomizer.nextLong();
+                Randomizer.setSeed(seed);
+                checkpoint.write(samples, from, next, seed, getSamplerStates());
+            }
+            from = next;
+        }
+    }
+
+    private String[] getSamplerStates(){
+        String[] states = new String[workers.size() * samplers.size()];
+        int k = 0;
+        for(StochasticValidationTest worker: workers){
+            for(Sampler sampler: worker.samplers) states[k++] = sampler.getCheckpointState();
+        }
+        return states;
+    }
+
+    private void restoreSamplerStates(String[] states){
+        if(states.length != workers.size() * samplers.size()) throw new IllegalArgumentException("Checkpoint was written with a different number of threads or samplers");
+        int k = 0;
+        for(StochasticValidationTest worker: workers){
+            for(Sampler sampler: worker.samplers){
+                String state = states[k++];
+                if(state != null) sampler.restoreCheckpointState(state);
+            }
+        }
+    }
+
+    // Each thread draws a contiguous block of sample numbers into its own rows of the sample stores,
+    // so the result has the same layout as a single threaded run. The random numbers each thread gets
+    // depend on scheduling, because the samplers all use the shared Randomizer
+    private void drawSamples(int from, int to) throws Exception {
+        if(workers.size() == 1){
+            drawSamples(this, from, to);
+            return;
+        }
+
+        int blockSize = (to - from + workers.size() - 1) / workers.size();
+        List<Future<?>> futures = new ArrayList<>(workers.size());
+        for(int t = 0; t < workers.size() && from + t * blockSize < to; t++){
+            StochasticValidationTest worker = workers.get(t);
+            int blockFrom = from + t * blockSize;
+            int blockTo = Math.min(to, blockFrom + blockSize);
+            futures.add(executor.submit(() -> drawSamples(worker, blockFrom, blockTo)));
+        }
+        for(Future<?> future: futures){
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if(e.getCause() instanceof Exception) throw (Exception) e.getCause();
+                throw e;
+            }
+        }
+    }
+
+    private void drawSamples(StochasticValidationTest worker, int from, int to){
+        List<Sampler> samplers = worker.samplers;
+        List<Statistics> statistics = worker.statistics;
+        for(int i = from; i < to; i++){
+            if(printEvery != -1 && i % printEvery == 0){
+                System.out.println("Sample " + (i + 1));
+            }
+
+            for(Sampler sampler: samplers) sampler.nextState(i);
+
+            for(int statisticIndex = 0; statisticIndex < statistics.size(); statisticIndex++){
+                Statistics statistic = statistics.get(statisticIndex);
+                statistic.updateStatistics(i);
+                if(worker.moments != null) worker.moments[statisticIndex].add(statistic.getArrayValues());
+                else samples.get(statisticIndex).setSample(i, statistic.getArrayValues());
+            }
+
+            for(Logger logger: sampleLoggers) logger.log(i);
+        }
+    }
 
+    // Copies the whole object graph, so samplers and statistics of the copy share state with each other but not with this test
+    private StochasticValidationTest copy() throws XMLParserException {
+        String xml = new XMLProducer().toRawXML(this);
+        return (StochasticValidationTest) new XMLParser().parseBareFragment(xml, true);
     }
 
 }
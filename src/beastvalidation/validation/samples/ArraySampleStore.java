@@ -0,0 +1,27 @@
+package beastvalidation.validation.samples;
+
+public class ArraySampleStore extends SampleStore {
+
+    private final double[][] columns;
+
+    public ArraySampleStore(int capacity, int dimension){
+        super(capacity, dimension);
+        columns = new double[dimension][capacity];
+    }
+
+    @Override
+    public double getValue(int sampleNr, int dim) {
+        return columns[dim][sampleNr];
+    }
+
+    @Override
+    public void setValue(int sampleNr, int dim, double value) {
+        columns[dim][sampleNr] = value;
+    }
+
+    @Override
+    public double[] getColumn(int dim, double[] out) {
+        System.arraycopy(columns[dim], 0, out, 0, capacity);
+        return out;
+    }
+}
@@ -0,0 +1,59 @@
+package beastvalidation.validation.samples;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sample store backed by a memory mapped temporary file, so that the operating system rather than the
+ * heap holds the values. Each dimension is mapped as a separate column.
+ */
+public class MappedSampleStore extends SampleStore {
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final DoubleBuffer[] columns;
+
+    public MappedSampleStore(int capacity, int dimension) throws IOException {
+        super(capacity, dimension);
+        if((long) capacity * Double.BYTES > Integer.MAX_VALUE) throw new IllegalArgumentException("capacity is too large to map a column");
+
+        file = File.createTempFile("samples", ".bin");
+        file.deleteOnExit();
+        raf = new RandomAccessFile(file, "rw");
+        long columnSize = (long) capacity * Double.BYTES;
+        raf.setLength(columnSize * dimension);
+
+        FileChannel channel = raf.getChannel();
+        columns = new DoubleBuffer[dimension];
+        for(int dim = 0; dim < dimension; dim++){
+            columns[dim] = channel.map(FileChannel.MapMode.READ_WRITE, dim * columnSize, columnSize)
+                    .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+    }
+
+    @Override
+    public double getValue(int sampleNr, int dim) {
+        return columns[dim].get(sampleNr);
+    }
+
+    @Override
+    public void setValue(int sampleNr, int dim, double value) {
+        columns[dim].put(sampleNr, value);
+    }
+
+    @Override
+    public double[] getColumn(int dim, double[] out) {
+        columns[dim].duplicate().get(out, 0, capacity);
+        return out;
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+        file.delete();
+    }
+}
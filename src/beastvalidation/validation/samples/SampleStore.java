@@ -0,0 +1,88 @@
+package beastvalidation.validation.samples;
+
+import java.io.IOException;
+
+/**
+ * Storage for the values of a statistic, filled in one sample at a time.
+ * Values are kept per dimension in flat columns rather than as one array per sample.
+ * Different samples may be set from different threads.
+ */
+public abstract class SampleStore implements SampleView {
+
+    protected final int capacity;
+    protected final int dimension;
+
+    protected SampleStore(int capacity, int dimension){
+        if(capacity < 0) throw new IllegalArgumentException("capacity must be 0 or greater");
+        if(dimension < 1) throw new IllegalArgumentException("dimension must be 1 or greater");
+        this.capacity = capacity;
+        this.dimension = dimension;
+    }
+
+    public abstract void setValue(int sampleNr, int dim, double value);
+
+    public void setSample(int sampleNr, double[] values){
+        for(int dim = 0; dim < dimension; dim++){
+            setValue(sampleNr, dim, values[dim]);
+        }
+    }
+
+    @Override
+    public int getSampleCount() {
+        return capacity;
+    }
+
+    @Override
+    public int getDimension() {
+        return dimension;
+    }
+
+    /** View on the first sampleCount samples **/
+    public SampleView prefix(int sampleCount){
+        if(sampleCount < 0 || sampleCount > capacity) throw new IllegalArgumentException("sampleCount must be between 0 and " + capacity);
+        if(sampleCount == capacity) return this;
+        SampleStore store = this;
+        return new SampleView() {
+            @Override
+            public int getSampleCount() {
+                return sampleCount;
+            }
+
+            @Override
+            public int getDimension() {
+                return dimension;
+            }
+
+            @Override
+            public double getValue(int sampleNr, int dim) {
+                if(sampleNr >= sampleCount) throw new IndexOutOfBoundsException("Sample " + sampleNr + " is not in view of " + sampleCount + " samples");
+                return store.getValue(sampleNr, dim);
+            }
+        };
+    }
+
+    /** Releases resources held by the store. It should not be used afterwards **/
+    public void close() throws IOException {
+    }
+
+    /**
+     * Creates a store in memory, or backed by a temporary file if it does not comfortably fit in the heap
+     * @param backing one of memory, file or auto
+     */
+    public static SampleStore create(int capacity, int dimension, String backing) throws IOException {
+        switch (backing) {
+            case "memory":
+                return new ArraySampleStore(capacity, dimension);
+            case "file":
+                return new MappedSampleStore(capacity, dimension);
+            case "auto":
+                long size = (long) capacity * dimension * Double.BYTES;
+                if(size > Runtime.getRuntime().maxMemory() / 4){
+                    return new MappedSampleStore(capacity, dimension);
+                }
+                return new ArraySampleStore(capacity, dimension);
+            default:
+                throw new IllegalArgumentException("backing should be memory, file or auto, not " + backing);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package beastvalidation.validation.samples;
+
+/**
+ * Read access to a sample of fixed dimensional values, as consumed by statistical tests.
+ */
+public interface SampleView {
+
+    public int getSampleCount();
+
+    public int getDimension();
+
+    public double getValue(int sampleNr, int dim);
+
+    public default double[] getSample(int sampleNr, double[] out){
+        for(int dim = 0; dim < getDimension(); dim++){
+            out[dim] = getValue(sampleNr, dim);
+        }
+        return out;
+    }
+
+    public default double[] getColumn(int dim, double[] out){
+        for(int sampleNr = 0; sampleNr < getSampleCount(); sampleNr++){
+            out[sampleNr] = getValue(sampleNr, dim);
+        }
+        return out;
+    }
+
+    public default double[][] toArray(){
+        double[][] values = new double[getSampleCount()][getDimension()];
+        for(int sampleNr = 0; sampleNr < values.length; sampleNr++){
+            getSample(sampleNr, values[sampleNr]);
+        }
+        return values;
+    }
+
+    /** View on an array with one row per sample, without copying it **/
+    public static SampleView of(double[][] values){
+        int dimension = values.length > 0 ? values[0].length : 0;
+        return new SampleView() {
+            @Override
+            public int getSampleCount() {
+                return values.length;
+            }
+
+            @Override
+            public int getDimension() {
+                return dimension;
+            }
+
+            @Override
+            public double getValue(int sampleNr, int dim) {
+                return values[sampleNr][dim];
+            }
+
+            @Override
+            public double[] getSample(int sampleNr, double[] out) {
+                System.arraycopy(values[sampleNr], 0, out, 0, dimension);
+                return out;
+            }
+
+            @Override
+            public double[][] toArray() {
+                return values;
+            }
+        };
+    }
+}
@@ -0,0 +1,14 @@
+package beastvalidation.validation.statistics;
+
+import beast.base.inference.parameter.RealParameter;
+
+/**
+ * A distribution that can calculate the gradient of its log density analytically.
+ */
+public interface GradientProvider {
+
+    /**
+     * @return derivatives of the log density with respect to each dimension of the parameter, at its current values
+     */
+    double[] getGradientLogP(RealParameter parameter);
+}
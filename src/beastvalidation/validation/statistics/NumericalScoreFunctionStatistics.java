@@ -1,14 +1,28 @@
 package beastvalidation.validation.statistics;
 
+import beast.base.core.BEASTInterface;
 import beast.base.inference.Distribution;
 import beast.base.core.Input;
+import beast.base.inference.State;
+import beast.base.inference.StateNode;
 import beast.base.inference.parameter.RealParameter;
+import beast.base.parser.XMLParser;
+import beast.base.parser.XMLParserException;
+import beast.base.parser.XMLProducer;
 import org.apache.commons.math3.util.Pair;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 
@@ -18,6 +32,11 @@ public class NumericalScoreFunctionStatistics extends Statistics {
     public Input<Boolean> relativeStepInput = new Input<>("relativeStep", "Whether to use relative step when calculating gradient", true, Input.Validate.OPTIONAL);
     public Input<Distribution> likelihoodInput = new Input<>("likelihood", "Likelihood to be tested", Input.Validate.REQUIRED);
     public Input<List<RealParameter>> parametersInput = new Input<>("parameter", "Parameters to be included in validation", new ArrayList<>(), Input.Validate.REQUIRED);
+    public Input<Boolean> useGradientInput = new Input<>("useGradient", "Whether to use the analytic gradient of the likelihood when it provides one", true, Input.Validate.OPTIONAL);
+    public Input<Double> verifyRateInput = new Input<>("verifyRate", "Fraction of samples, chosen at random, at which the analytic gradient is checked against the numerical one (0 to never check)", 0.01, Input.Validate.OPTIONAL);
+    public Input<Integer> verifyComponentsInput = new Input<>("verifyComponents", "Number of gradient components, chosen at random, that are checked at each of these samples", 2, Input.Validate.OPTIONAL);
+    public Input<Double> verifyToleranceInput = new Input<>("verifyTolerance", "Largest relative difference allowed between analytic and numerical gradients", 1e-4, Input.Validate.OPTIONAL);
+    public Input<Integer> threadsInput = new Input<>("threads", "Number of threads to evaluate the likelihood at perturbed parameters with. Each thread works on its own copy of the likelihood", 1, Input.Validate.OPTIONAL);
 
     private Distribution likelihood;
     private List<RealParameter> parameters;
@@ -28,26 +47,172 @@ public class NumericalScoreFunctionStatistics extends Statistics {
     private int paramDim;
     private List<String> paramNames;
     private List<Double> paramValues;
+    // parameter and dimension of each gradient component
+    private RealParameter[] componentParameters;
+    private int[] componentDims;
+
+    private GradientProvider gradientProvider;
+    private double verifyRate;
+    private int verifyComponents;
+    private double verifyTolerance;
+
+    private int threads;
+    private List<LikelihoodCopy> copies;
+    private ExecutorService executor;
+
+    /** A copy of the likelihood and the state nodes it depends on, used by one thread **/
+    private static class LikelihoodCopy {
+        final Distribution likelihood;
+        final Map<String, StateNode> stateNodes;
+        // the copied state nodes belong to a state, as the originals do, so they can be edited in the same way
+        final State state;
+
+        LikelihoodCopy(Distribution likelihood, Map<String, StateNode> stateNodes){
+            this.likelihood = likelihood;
+            this.stateNodes = stateNodes;
+            state = new State();
+            state.initByName("stateNode", new ArrayList<>(stateNodes.values()));
+            state.initialise();
+        }
+    }
 
     @Override
     public void updateStatistics(int sampleNr) {
+        if(gradientProvider != null){
+            calcAnalyticGradient(values);
+            if(verifyRate > 0.0) verifyGradient(sampleNr);
+        } else {
+            calcNumericalGradient(values);
+        }
+    }
+
+    private void calcAnalyticGradient(double[] gradient) {
         int i = 0;
         for(RealParameter p: parameters){
+            double[] parameterGradient = gradientProvider.getGradientLogP(p);
+            System.arraycopy(parameterGradient, 0, gradient, i, p.getDimension());
+            i += p.getDimension();
+        }
+    }
+
+    // Checks a few random components at a random subset of samples, since the numerical gradient costs two likelihood
+    // evaluations per component. The choice only depends on the sample number, so the shared Randomizer is not used
+    private void verifyGradient(int sampleNr) {
+        SplittableRandom random = new SplittableRandom(sampleNr);
+        if(random.nextDouble() >= verifyRate) return;
+        for(int k = 0; k < Math.min(verifyComponents, paramDim); k++){
+            int i = random.nextInt(paramDim);
+            double numerical = numericalDerivative(likelihood, componentParameters[i], componentDims[i], i);
+            if(Math.abs(values[i] - numerical) > verifyTolerance * Math.max(1.0, Math.abs(numerical))){
+                throw new RuntimeException("Analytic gradient of " + paramNames.get(i) + " at sample " + sampleNr + " is " + values[i] +
+                        " but numerical gradient is " + numerical);
+            }
+        }
+    }
+
+    // Central difference of the log likelihood in dimension j of p, which is gradient component i
+    private double numericalDerivative(Distribution likelihood, RealParameter p, int j, int i) {
+        double step = relativeStep ? stepSize * paramValues.get(i) : stepSize;
+
+        p.setValue(j, paramValues.get(i) - step);
+        double fxmh = likelihood.calculateLogP();
+        p.setValue(j, paramValues.get(i) + step);
+        double fxph = likelihood.calculateLogP();
+
+        p.setValue(j, paramValues.get(i));
+        return (fxph - fxmh)/(2*step);
+    }
+
+    private void calcNumericalGradient(double[] gradient) {
+        if(threads > 1){
+            calcNumericalGradientInParallel(gradient);
+            return;
+        }
 
-            for(int j = 0; j < p.getDimension(); j++){
+        for(int i = 0; i < paramDim; i++){
+            gradient[i] = numericalDerivative(likelihood, componentParameters[i], componentDims[i], i);
+        }
+    }
 
-                double step = relativeStep ? stepSize * paramValues.get(i) : stepSize;
+    /**
+     * Each thread brings its copy of the likelihood up to date with the current state, and then works through every
+     * threads'th gradient component. The likelihood is evaluated and the same arithmetic is done on the same values as in
+     * the serial path, so the gradient does not depend on the number of threads.
+     */
+    private void calcNumericalGradientInParallel(double[] gradient) {
+        if(copies == null) createCopies();
 
-                p.setValue(j, paramValues.get(i) - step);
-                double fxmh = likelihood.calculateLogP();
-                p.setValue(j, paramValues.get(i) + step);
-                double fxph = likelihood.calculateLogP();
-                values[i] = (fxph - fxmh)/(2*step);
+        Map<String, StateNode> current = getStateNodes(likelihood);
+        List<Future<?>> futures = new ArrayList<>(threads);
+        for(int t = 0; t < threads; t++){
+            LikelihoodCopy copy = copies.get(t);
+            int first = t;
+            futures.add(executor.submit(() -> {
+                for(Map.Entry<String, StateNode> e: current.entrySet()){
+                    copy.stateNodes.get(e.getKey()).assignFrom(e.getValue());
+                }
+                for(int i = first; i < paramDim; i += threads){
+                    RealParameter p = (RealParameter) copy.stateNodes.get(componentParameters[i].getID());
+                    gradient[i] = numericalDerivative(copy.likelihood, p, componentDims[i], i);
+                }
+                return null;
+            }));
+        }
 
-                p.setValue(j, paramValues.get(i));
-                i++;
+        try {
+            for(Future<?> future: futures) future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void createCopies() {
+        Map<String, StateNode> originals = getStateNodes(likelihood);
+        copies = new ArrayList<>(threads);
+        try {
+            String xml = new XMLProducer().toRawXML(likelihood);
+            for(int t = 0; t < threads; t++){
+                Distribution copy = (Distribution) new XMLParser().parseBareFragment(xml, true);
+                Map<String, StateNode> stateNodes = getStateNodes(copy);
+                if(!stateNodes.keySet().equals(originals.keySet())) throw new IllegalArgumentException("Could not copy the state nodes of likelihood " + likelihood.getID());
+                copies.add(new LikelihoodCopy(copy, stateNodes));
             }
+        } catch (XMLParserException e) {
+            throw new RuntimeException(e);
         }
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "score-function-" + getID());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void release() {
+        if(executor != null) executor.shutdown();
+        executor = null;
+        copies = null;
+    }
+
+    // state nodes the likelihood depends on, by ID
+    private static Map<String, StateNode> getStateNodes(BEASTInterface likelihood){
+        Map<String, StateNode> stateNodes = new LinkedHashMap<>();
+        Set<BEASTInterface> visited = new HashSet<>();
+        List<BEASTInterface> toVisit = new ArrayList<>();
+        toVisit.add(likelihood);
+        while(!toVisit.isEmpty()){
+            BEASTInterface o = toVisit.remove(toVisit.size() - 1);
+            if(!visited.add(o)) continue;
+            if(o instanceof StateNode){
+                if(o.getID() == null) throw new IllegalArgumentException("State nodes of the likelihood need IDs to use more than one thread");
+                stateNodes.put(o.getID(), (StateNode) o);
+            }
+            toVisit.addAll(o.listActiveBEASTObjects());
+        }
+        return stateNodes;
     }
 
     @Override
@@ -75,6 +240,15 @@ public class NumericalScoreFunctionStatistics extends Statistics {
 
         stepSize = stepSizeInput.get();
         relativeStep = relativeStepInput.get();
+        gradientProvider = useGradientInput.get() && likelihood instanceof GradientProvider ? (GradientProvider) likelihood : null;
+        verifyRate = verifyRateInput.get();
+        if(verifyRate < 0.0 || verifyRate > 1.0) throw new IllegalArgumentException("verifyRate must be between 0 and 1");
+        verifyComponents = verifyComponentsInput.get();
+        if(verifyComponents < 1) throw new IllegalArgumentException("verifyComponents must be 1 or greater");
+        verifyTolerance = verifyToleranceInput.get();
+        threads = threadsInput.get();
+        if(threads < 1) throw new IllegalArgumentException("threads must be 1 or greater");
+        copies = null;
 
         paramDim = 0;
         paramNames = new ArrayList<>();
@@ -93,12 +267,22 @@ public class NumericalScoreFunctionStatistics extends Statistics {
                 String name = paramInputNames.get(p);
                 for(int i = 0; i < dim; i++){
                     paramNames.add(String.format("%s_%d", name, i));
-                    paramValues.add(p.getValue());
+                    paramValues.add(p.getValue(i));
                 }
                 paramDim += dim;
             }
         }
 
+        componentParameters = new RealParameter[paramDim];
+        componentDims = new int[paramDim];
+        int i = 0;
+        for(RealParameter p: parameters){
+            for(int j = 0; j < p.getDimension(); j++, i++){
+                componentParameters[i] = p;
+                componentDims[i] = j;
+            }
+        }
+
         super.initAndValidate();
     }
 
@@ -21,6 +21,13 @@ public abstract class Statistics extends StateNode {
 
     public abstract void updateStatistics(int sampleNr);
 
+    /**
+     * Releases what was set up to calculate the statistics, such as threads, once sampling is done.
+     */
+    public void release(){
+
+    }
+
     @Override
     public void setEverythingDirty(boolean isDirty) {
 
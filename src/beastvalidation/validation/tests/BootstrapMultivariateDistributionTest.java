@@ -2,121 +2,120 @@ package beastvalidation.validation.tests;
 
 import beast.base.core.Input;
 import beast.base.util.Randomizer;
+import beastvalidation.util.DominanceCounter;
+import beastvalidation.validation.samples.SampleView;
 
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class BootstrapMultivariateDistributionTest extends StatisticalTest {
 
     public Input<Integer> nBootsInput = new Input<>("nBoots", "Number of boostrap resamples", 1000, Input.Validate.OPTIONAL);
     public Input<Integer> printEveryInput = new Input<>("printEvery", "Print bootstrapping progress every", 100, Input.Validate.OPTIONAL);
     public Input<String> criterionInput = new Input<>("criterion", "Test criterion to use: ks (Kolmogorov-Smirnov) or cvm (Cramer-von Mises)", "ks", new String[]{ "ks", "cvm" });
+    public Input<Integer> threadsInput = new Input<>("threads", "Number of threads used for bootstrapping. Results do not depend on it", Runtime.getRuntime().availableProcessors(), Input.Validate.OPTIONAL);
 
     private String criterion;
     private int nBoots;
     private int printEvery;
+    private int threads;
 
-    private boolean[][] pairwiseLess;
+    private DominanceCounter dominance;
     private double statisticValue;
     private double[] bootStatistics;
     private int n1;
     private int n2;
     private int N;
-    private int[] sample1Indices;
-    private int[] sample2Indices;
 
-    private boolean allLessEq(double[] x, double[] y){
-        for(int i = 0; i < x.length; i++){
-            if(x[i] > y[i]) return false;
-        }
-        return true;
-    }
-
-    private double calcStatistic(){
-        double[] F1_all = new double[N];
-        double[] F2_all = new double[N];
-
-        for(int i = 0; i < N; i++){
-            int[] sampleIndices = i < n1 ? sample1Indices : sample2Indices;
-            int indexI = i < n1 ? i : i - n1;
-            for(int j = 0; j < n1; j++){
-                if(pairwiseLess[sample1Indices[j]][sampleIndices[indexI]]){
-                    F1_all[i] += 1.0 / n1;
-                }
-            }
-            for(int j = 0; j < n2; j++){
-                if(pairwiseLess[sample2Indices[j]][sampleIndices[indexI]]){
-                    F2_all[i] += 1.0 / n2;
-                }
-            }
-        }
+    /**
+     * @param counts1 number of times each pooled point is in the first sample
+     * @param counts2 number of times each pooled point is in the second sample
+     */
+    private double calcStatistic(int[] counts1, int[] counts2){
+        long[] below1 = new long[N];
+        long[] below2 = new long[N];
+        dominance.count(counts1, below1);
+        dominance.count(counts2, below2);
 
         double statisticValue = 0.0;
-        if(criterion.equals("ks")){
-            for(int i = 0; i < N; i++){
-                statisticValue = Math.max(statisticValue, Math.abs(F1_all[i] - F2_all[i]));
-            }
-        } else if(criterion.equals("cvm")){
-            for(int i = 0; i < N; i++){
-                statisticValue += Math.pow(F1_all[i] - F2_all[i], 2.0);
+        for(int i = 0; i < N; i++){
+            int weight = counts1[i] + counts2[i];
+            if(weight == 0) continue;
+            double F1 = (double) below1[i] / n1;
+            double F2 = (double) below2[i] / n2;
+            if(criterion.equals("ks")){
+                statisticValue = Math.max(statisticValue, Math.abs(F1 - F2));
+            } else if(criterion.equals("cvm")){
+                statisticValue += weight * Math.pow(F1 - F2, 2.0);
             }
         }
         return statisticValue;
     }
 
-    private void assignTrueSampleIndices() {
-        for(int i = 0; i < N; i++){
-            int[] sampleIndices = i < n1 ? sample1Indices : sample2Indices;
-            int indexI = i < n1 ? i : i - n1;
-            sampleIndices[indexI] = i;
-        }
-    }
-
-    private void randomiseSampleIndices(){
+    private double calcBootStatistic(long seed){
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] counts1 = new int[N];
+        int[] counts2 = new int[N];
         for(int i = 0; i < n1; i++){
-            sample1Indices[i] = Randomizer.nextInt(N);
+            counts1[random.nextInt(N)]++;
         }
         for(int i = 0; i < n2; i++){
-            sample2Indices[i] = Randomizer.nextInt(N);
+            counts2[random.nextInt(N)]++;
         }
+        return calcStatistic(counts1, counts2);
     }
 
     @Override
-    public void performTest(List<double[][]> values) {
-        double[][] sample1 = values.get(0);
-        double[][] sample2 = values.get(1);
+    public void performTest(SampleView[] samples) {
+        SampleView sample1 = samples[0];
+        SampleView sample2 = samples[1];
 
-        n1 = sample1.length;
-        n2  = sample2.length;
+        n1 = sample1.getSampleCount();
+        n2  = sample2.getSampleCount();
         N = n1 + n2;
 
-        pairwiseLess = new boolean[N][N];
-
+        double[][] pooled = new double[N][];
         for(int i = 0; i < N; i++){
-            for(int j = 0; j < N; j++){
-                double[][] iSample = i < n1 ? sample1 : sample2;
-                int iIndex = i < n1 ? i : i - n1;
-                double[][] jSample = j < n1 ? sample1 : sample2;
-                int jIndex = j < n1 ? j : j - n1;
-                pairwiseLess[i][j] = allLessEq(iSample[iIndex], jSample[jIndex]);
-            }
+            SampleView iSample = i < n1 ? sample1 : sample2;
+            int iIndex = i < n1 ? i : i - n1;
+            pooled[i] = iSample.getSample(iIndex, new double[iSample.getDimension()]);
         }
 
-        sample1Indices = new int[n1];
-        sample2Indices = new int[n2];
-
-        assignTrueSampleIndices();
+        // each resample gets its own random stream, seeded in order, so results do not depend on the number of threads
+        long[] seeds = new long[nBoots];
+        for(int i = 0; i < nBoots; i++){
+            seeds[i] = Randomizer.nextLong();
+        }
 
-        statisticValue = calcStatistic();
+        dominance = new DominanceCounter(pooled);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            int[] counts1 = new int[N];
+            int[] counts2 = new int[N];
+            Arrays.fill(counts1, 0, n1, 1);
+            Arrays.fill(counts2, n1, N, 1);
+            statisticValue = calcStatistic(counts1, counts2);
+
+            bootStatistics = pool.submit(() -> IntStream.range(0, nBoots).parallel().mapToDouble(i -> {
+                if(i % printEvery == 0) System.out.println("Bootstrap sample " + (i + 1));
+                return calcBootStatistic(seeds[i]);
+            }).toArray()).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
 
-        bootStatistics = new double[nBoots];
         pValue = 0.0;
         for(int i = 0; i < nBoots; i++) {
-            if(i % printEvery == 0) System.out.println("Bootstrap sample " + (i + 1));
-            randomiseSampleIndices();
-            bootStatistics[i] = calcStatistic();
             if(bootStatistics[i] > statisticValue){
                 pValue += 1.0 / nBoots;
             }
@@ -148,5 +147,7 @@ public class BootstrapMultivariateDistributionTest extends StatisticalTest {
         if(nBoots <= 1) throw new IllegalArgumentException("nBoots must be greater than 1");
         printEvery = printEveryInput.get();
         if(printEvery < 1) throw new IllegalArgumentException("printEvery must be 1 or greater");
+        threads = threadsInput.get();
+        if(threads < 1) throw new IllegalArgumentException("threads must be 1 or greater");
     }
 }
@@ -0,0 +1,12 @@
+package beastvalidation.validation.tests;
+
+import beastvalidation.util.MomentAccumulator;
+
+/**
+ * A test that only needs the mean and covariance of each sample. StochasticValidationTest accumulates these
+ * while drawing samples and passes them in, so the samples themselves do not have to be kept.
+ */
+public interface MomentTest {
+
+    public void performTest(MomentAccumulator[] moments);
+}
@@ -4,14 +4,22 @@ import org.apache.commons.math.MathException;
 import org.apache.commons.math.distribution.ChiSquaredDistribution;
 import org.apache.commons.math.distribution.ChiSquaredDistributionImpl;
 
-import beastvalidation.util.MultivariateNormalDistribution;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.CholeskyDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+
+import beastvalidation.util.MomentAccumulator;
+import beastvalidation.validation.samples.SampleView;
 
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
-public class MultivariateNormalZeroMeanTest extends StatisticalTest {
+public class MultivariateNormalZeroMeanTest extends StatisticalTest implements MomentTest {
+
+    // Cholesky thresholds relative to the scale of the matrix, so statistics with tiny variances are not rejected
+    private static final double RELATIVE_SYMMETRY_THRESHOLD = 1e-12;
+    private static final double RELATIVE_POSITIVITY_THRESHOLD = 1e-15;
 
     private int n;
     private int d;
@@ -26,18 +34,24 @@ public class MultivariateNormalZeroMeanTest extends StatisticalTest {
     private double testStatistic;
 
     public void initSampleStats(double[][] values){
-        n = values.length;
-        d = values[0].length;
+        initSampleStats(SampleView.of(values));
+    }
+
+    public void initSampleStats(SampleView values){
+        n = values.getSampleCount();
+        d = values.getDimension();
 
         sampleMean = new double[d];
         sampleSquaredMean = new double[d][d];
         sampleCov = new double[d][d];
 
+        double[] row = new double[d];
         for(int i = 0; i < n; i++){
+            values.getSample(i, row);
             for(int j = 0; j < d; j++){
-                sampleMean[j] += values[i][j] / n;
+                sampleMean[j] += row[j] / n;
                 for(int k = 0; k < d; k++){
-                    sampleSquaredMean[j][k] += values[i][j] * values[i][k] / n;
+                    sampleSquaredMean[j][k] += row[j] * row[k] / n;
                 }
             }
         }
@@ -49,26 +63,52 @@ public class MultivariateNormalZeroMeanTest extends StatisticalTest {
         }
     }
 
+    public void initSampleStats(MomentAccumulator moments){
+        n = (int) moments.getCount();
+        d = moments.getDimension();
+        sampleMean = moments.getMean();
+        sampleCov = moments.getCovariance();
+        sampleSquaredMean = moments.getSecondMoment();
+    }
+
     @Override
-    public void performTest(List<double[][]> valuesList) {
-        if(valuesList.size() != 1) throw new IllegalArgumentException("Only one sample must be provided");
+    public void performTest(SampleView[] samples) {
+        if(samples.length != 1) throw new IllegalArgumentException("Only one sample must be provided");
 
-        double[][] values = valuesList.get(0);
-        if(values.length < 2) throw new IllegalArgumentException("At least two values must be provided");
-        if(values[0].length < 1) throw new IllegalArgumentException("Data must have at least one dimension");
+        SampleView values = samples[0];
+        if(values.getSampleCount() < 2) throw new IllegalArgumentException("At least two values must be provided");
+        if(values.getDimension() < 1) throw new IllegalArgumentException("Data must have at least one dimension");
 
-        initSampleStats(values);
+        MomentAccumulator moments = new MomentAccumulator(values.getDimension());
+        double[] row = new double[values.getDimension()];
+        for(int i = 0; i < values.getSampleCount(); i++){
+            moments.add(values.getSample(i, row));
+        }
+        performTest(moments);
+    }
 
-        MultivariateNormalDistribution h0 = new MultivariateNormalDistribution(new double[d], sampleSquaredMean);
-        MultivariateNormalDistribution h1 = new MultivariateNormalDistribution(sampleMean, sampleCov);
+    @Override
+    public void performTest(MomentAccumulator[] moments) {
+        if(moments.length != 1) throw new IllegalArgumentException("Only one sample must be provided");
+        performTest(moments[0]);
+    }
 
-        h0LogLikelihood = 0;
-        h1LogLikelihood = 0;
+    /**
+     * Tests moments that were accumulated while sampling, without going over the samples again.
+     */
+    public void performTest(MomentAccumulator moments) {
+        if(moments.getCount() < 2) throw new IllegalArgumentException("At least two values must be provided");
+        if(moments.getDimension() < 1) throw new IllegalArgumentException("Data must have at least one dimension");
 
-        for(int i = 0; i < n; i++){
-            h0LogLikelihood += h0.logDensity(values[i]);
-            h1LogLikelihood += h1.logDensity(values[i]);
-        }
+        initSampleStats(moments);
+        performTestOnSampleStats();
+    }
+
+    private void performTestOnSampleStats() {
+        // At the maximum likelihood estimates the log likelihood is -n/2 (d log(2 pi) + log|S| + d)
+        double constant = d * Math.log(2 * Math.PI) + d;
+        h0LogLikelihood = -0.5 * n * (constant + logDeterminant(sampleSquaredMean));
+        h1LogLikelihood = -0.5 * n * (constant + logDeterminant(sampleCov));
 
         testStatistic = 2 * (h1LogLikelihood - h0LogLikelihood);
         ChiSquaredDistribution chiSq = new ChiSquaredDistributionImpl(d);
@@ -81,6 +121,18 @@ public class MultivariateNormalZeroMeanTest extends StatisticalTest {
         }
     }
 
+    private static double logDeterminant(double[][] cov){
+        double scale = 0.0;
+        for(int i = 0; i < cov.length; i++) scale = Math.max(scale, Math.abs(cov[i][i]));
+        RealMatrix L = new CholeskyDecomposition(new Array2DRowRealMatrix(cov),
+                RELATIVE_SYMMETRY_THRESHOLD, RELATIVE_POSITIVITY_THRESHOLD * scale).getL();
+        double logDet = 0.0;
+        for(int i = 0; i < cov.length; i++){
+            logDet += 2 * Math.log(L.getEntry(i, i));
+        }
+        return logDet;
+    }
+
     public double[] getSampleMean(){
         return sampleMean; // TODO: Test
     }
@@ -2,6 +2,7 @@ package beastvalidation.validation.tests;
 
 import beast.base.core.BEASTObject;
 import beast.base.core.Loggable;
+import beastvalidation.validation.samples.SampleView;
 
 import java.io.PrintStream;
 import java.util.List;
@@ -12,7 +13,15 @@ import java.util.stream.Stream;
 public abstract class StatisticalTest extends BEASTObject implements Loggable {
 
     protected double pValue;
-    public abstract void performTest(List<double[][]> values);
+    public abstract void performTest(SampleView[] samples);
+
+    public void performTest(List<double[][]> values){
+        SampleView[] samples = new SampleView[values.size()];
+        for(int i = 0; i < samples.length; i++){
+            samples[i] = SampleView.of(values.get(i));
+        }
+        performTest(samples);
+    }
 
     public double getPValue(){
         return pValue;
@@ -0,0 +1,167 @@
+package beast.experimenter;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.Tree;
+import beast.base.evolution.tree.TreeParser;
+import beastvalidation.experimenter.CladeCounter;
+
+public class CladeCounterTest {
+
+	private static List<String> taxa(int taxonCount) {
+		List<String> taxa = new ArrayList<>();
+		for (int i = 0; i < taxonCount; i++) {
+			taxa.add("t" + i);
+		}
+		return taxa;
+	}
+
+	private static Tree tree(List<String> taxa, String newick) {
+		return new TreeParser(taxa, newick, 0, false);
+	}
+
+	/** key of a clade without sampled ancestor, laid out as CladeCounter does for the given number of taxa **/
+	private static long [] key(int taxonCount, int... taxa) {
+		long [] key = new long[(taxonCount + 63) / 64 + 1];
+		for (int taxon : taxa) {
+			key[taxon / 64] |= 1L << taxon;
+		}
+		return key;
+	}
+
+	private static Map<String, Integer> clades(CladeCounter counter) {
+		Map<String, Integer> clades = new HashMap<>();
+		counter.forEachClade((key, offset, count) -> {
+			String k = Arrays.toString(Arrays.copyOfRange(key, offset, offset + 2));
+			assertNull(clades.put(k, count));
+		});
+		return clades;
+	}
+
+	@Test
+	public void testSmallTrees() {
+		List<String> taxa = taxa(5);
+		CladeCounter counter = new CladeCounter(5);
+		counter.add(tree(taxa, "((0:1,1:1):1,(2:1.5,(3:1,4:1):0.5):0.5);"));
+		counter.add(tree(taxa, "((0:1,1:1):1,((2:1,3:1):0.5,4:1.5):0.5);"));
+		// taxon 2 is a sampled ancestor of taxa 0 and 1
+		counter.add(tree(taxa, "(((0:1,1:1):1,2:0):1,(3:1,4:1):1);"));
+		assertEquals(3, counter.getTreeCount());
+
+		long [] sampledAncestorKey = key(5, 0, 1, 2);
+		sampledAncestorKey[1] = 2 + 1;
+
+		assertEquals(3, counter.getCount(key(5, 0, 1), 0));
+		assertEquals(2, counter.getCount(key(5, 3, 4), 0));
+		assertEquals(2, counter.getCount(key(5, 2, 3, 4), 0));
+		assertEquals(1, counter.getCount(key(5, 2, 3), 0));
+		assertEquals(3, counter.getCount(key(5, 0, 1, 2, 3, 4), 0));
+		assertEquals(1, counter.getCount(sampledAncestorKey, 0));
+		// the same taxa without the sampled ancestor are another clade
+		assertEquals(0, counter.getCount(key(5, 0, 1, 2), 0));
+		assertEquals(0, counter.getCount(key(5, 1, 2), 0));
+		assertEquals(6, counter.size());
+
+		assertEquals(2, counter.cardinality(key(5, 0, 1), 0));
+		assertEquals(4, counter.cardinality(sampledAncestorKey, 0));
+		assertTrue(counter.containsTaxon(sampledAncestorKey, 0, 2));
+		assertFalse(counter.containsTaxon(sampledAncestorKey, 0, 3));
+
+		Map<String, Integer> expected = new HashMap<>();
+		expected.put(Arrays.toString(key(5, 0, 1)), 3);
+		expected.put(Arrays.toString(key(5, 3, 4)), 2);
+		expected.put(Arrays.toString(key(5, 2, 3, 4)), 2);
+		expected.put(Arrays.toString(key(5, 2, 3)), 1);
+		expected.put(Arrays.toString(key(5, 0, 1, 2, 3, 4)), 3);
+		expected.put(Arrays.toString(sampledAncestorKey), 1);
+		assertEquals(expected, clades(counter));
+	}
+
+	/** random tree on taxa numbered from 0, built by joining random pairs of subtrees **/
+	private static String randomNewick(int taxonCount, Random random) {
+		List<String> subtrees = new ArrayList<>();
+		List<Double> heights = new ArrayList<>();
+		for (int i = 0; i < taxonCount; i++) {
+			subtrees.add("" + i);
+			heights.add(0.0);
+		}
+		double height = 0;
+		while (subtrees.size() > 1) {
+			height += random.nextDouble();
+			int i = random.nextInt(subtrees.size());
+			String left = subtrees.remove(i);
+			double leftHeight = heights.remove(i);
+			int j = random.nextInt(subtrees.size());
+			String right = subtrees.remove(j);
+			double rightHeight = heights.remove(j);
+			subtrees.add("(" + left + ":" + (height - leftHeight) + "," + right + ":" + (height - rightHeight) + ")");
+			heights.add(height);
+		}
+		return subtrees.get(0) + ";";
+	}
+
+	private static BitSet addClades(Node node, Map<BitSet, Integer> counts) {
+		BitSet clade = new BitSet();
+		if (node.isLeaf()) {
+			clade.set(node.getNr());
+			return clade;
+		}
+		for (Node child : node.getChildren()) {
+			clade.or(addClades(child, counts));
+		}
+		counts.merge(clade, 1, Integer::sum);
+		return clade;
+	}
+
+	@Test
+	public void testManyClades() {
+		// more than 64 taxa, so keys take two words, and far more clades than fit the initial table
+		int taxonCount = 70;
+		List<String> taxa = taxa(taxonCount);
+		Random random = new Random(5);
+		CladeCounter counter = new CladeCounter(taxonCount);
+		Map<BitSet, Integer> expected = new HashMap<>();
+		String newick = randomNewick(taxonCount, random);
+		for (int i = 0; i < 40; i++) {
+			// repeat some trees so that clades are counted more than once
+			if (i % 3 != 0) {
+				newick = randomNewick(taxonCount, random);
+			}
+			Tree tree = tree(taxa, newick);
+			counter.add(tree);
+			addClades(tree.getRoot(), expected);
+		}
+		assertTrue(expected.size() > 32);
+		assertEquals(expected.size(), counter.size());
+
+		for (Map.Entry<BitSet, Integer> e : expected.entrySet()) {
+			long [] key = key(taxonCount, e.getKey().stream().toArray());
+			assertEquals((int) e.getValue(), counter.getCount(key, 0));
+			assertEquals(e.getKey().cardinality(), counter.cardinality(key, 0));
+		}
+
+		Map<BitSet, Integer> visited = new HashMap<>();
+		counter.forEachClade((key, offset, count) -> {
+			BitSet clade = new BitSet();
+			for (int taxon = 0; taxon < taxonCount; taxon++) {
+				if (counter.containsTaxon(key, offset, taxon)) {
+					clade.set(taxon);
+				}
+			}
+			assertEquals(0, key[offset + 2]);
+			assertNull(visited.put(clade, count));
+		});
+		assertEquals(expected, visited);
+	}
+}
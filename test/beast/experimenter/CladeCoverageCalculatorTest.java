@@ -0,0 +1,93 @@
+package beast.experimenter;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import beastfx.app.util.TreeFile;
+import beastvalidation.experimenter.CladeCoverageCalculator;
+import beastvalidation.experimenter.CladeCoverageCalculator.ReplicateCounts;
+
+public class CladeCoverageCalculatorTest {
+	final static int TAXA = 6;
+	final static int REPLICATES = 7;
+	final static int TREES = 30;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/** random tree on taxa numbered from 1, built by joining random pairs of subtrees **/
+	private static String randomNewick(Random random) {
+		List<String> subtrees = new ArrayList<>();
+		List<Double> heights = new ArrayList<>();
+		for (int i = 1; i <= TAXA; i++) {
+			subtrees.add("" + i);
+			heights.add(0.0);
+		}
+		double height = 0;
+		while (subtrees.size() > 1) {
+			height += random.nextDouble();
+			int i = random.nextInt(subtrees.size());
+			String left = subtrees.remove(i);
+			double leftHeight = heights.remove(i);
+			int j = random.nextInt(subtrees.size());
+			String right = subtrees.remove(j);
+			double rightHeight = heights.remove(j);
+			subtrees.add("(" + left + ":" + (height - leftHeight) + "," + right + ":" + (height - rightHeight) + ")");
+			heights.add(height);
+		}
+		return subtrees.get(0) + ";";
+	}
+
+	private static void writeTrees(File file, List<String> taxa, Random random, int treeCount) throws IOException {
+		try (PrintStream out = new PrintStream(file)) {
+			out.println("#NEXUS\n\nBegin trees;\n\tTranslate");
+			for (int i = 0; i < taxa.size(); i++) {
+				out.println("\t\t" + (i + 1) + " " + taxa.get(i) + (i < taxa.size() - 1 ? "," : ""));
+			}
+			out.println(";");
+			for (int i = 0; i < treeCount; i++) {
+				out.println("tree STATE_" + i + " = " + randomNewick(random));
+			}
+			out.println("End;");
+		}
+	}
+
+	@Test
+	public void testThreadsGiveSameBins() throws Exception {
+		Random random = new Random(127);
+		List<String> taxa = new ArrayList<>();
+		for (int i = 0; i < TAXA; i++) {
+			taxa.add("taxon" + i);
+		}
+		for (int i = 0; i < REPLICATES; i++) {
+			writeTrees(new File(folder.getRoot(), "replicate" + i + ".trees"), taxa, random, TREES);
+		}
+		// the true trees number their taxa in another order, so they need to be renumbered
+		List<String> shuffled = new ArrayList<>(taxa);
+		Collections.shuffle(shuffled, random);
+		File truth = new File(folder.getRoot(), "truth.trees");
+		writeTrees(truth, shuffled, random, REPLICATES + 1);
+
+		CladeCoverageCalculator calculator = new CladeCoverageCalculator();
+		calculator.initByName("truth", new TreeFile(truth.getPath()), "prefix", new File(folder.getRoot(), "replicate"), "bins", 5);
+		ReplicateCounts sequential = calculator.countClades(1);
+		ReplicateCounts parallel = calculator.countClades(3);
+
+		assertEquals(REPLICATES * (TAXA - 1), sequential.totalClades);
+		assertArrayEquals(sequential.truebins, parallel.truebins);
+		assertArrayEquals(sequential.totals, parallel.totals);
+		assertEquals(sequential.missedClades, parallel.missedClades);
+		assertEquals(sequential.totalClades, parallel.totalClades);
+	}
+}
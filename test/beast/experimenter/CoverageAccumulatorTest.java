@@ -0,0 +1,120 @@
+package beast.experimenter;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SortedMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import beastvalidation.experimenter.CoverageAccumulator;
+import beastvalidation.experimenter.CoverageAccumulator.Outcome;
+
+public class CoverageAccumulatorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Outcome outcome(int replicate, boolean covered) {
+		return new Outcome(covered, replicate % 2 == 0, 100.0 + replicate, replicate, replicate + 0.1, replicate + 0.2,
+				replicate - 1.0, replicate + 1.0);
+	}
+
+	private static void assertOutcome(int replicate, boolean covered, Outcome outcome) {
+		Outcome expected = outcome(replicate, covered);
+		assertEquals(expected.covered, outcome.covered);
+		assertEquals(expected.over, outcome.over);
+		assertEquals(expected.ess, outcome.ess, 0.0);
+		assertEquals(expected.trueValue, outcome.trueValue, 0.0);
+		assertEquals(expected.mean, outcome.mean, 0.0);
+		assertEquals(expected.median, outcome.median, 0.0);
+		assertEquals(expected.lower, outcome.lower, 0.0);
+		assertEquals(expected.upper, outcome.upper, 0.0);
+	}
+
+	@Test
+	public void testLoadMissingFile() throws IOException {
+		CoverageAccumulator accumulator = CoverageAccumulator.load(new File(folder.getRoot(), "coverage.acc"));
+		assertEquals(-1, accumulator.getFirstFileNumber());
+		assertEquals(0, accumulator.getReplicateCount());
+		assertTrue(accumulator.getOutcomes("kappa").isEmpty());
+	}
+
+	@Test
+	public void testSaveAndLoad() throws IOException {
+		File file = new File(folder.getRoot(), "coverage.acc");
+		CoverageAccumulator accumulator = CoverageAccumulator.load(file);
+		accumulator.setFirstFileNumber(1);
+		for (int replicate : new int[]{3, 0, 1}) {
+			accumulator.add("kappa", replicate, outcome(replicate, replicate != 1));
+			accumulator.addReplicate(replicate);
+		}
+		accumulator.add("birthRate", 0, outcome(0, false));
+		accumulator.save();
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+
+		CoverageAccumulator loaded = CoverageAccumulator.load(file);
+		assertEquals(1, loaded.getFirstFileNumber());
+		assertEquals(3, loaded.getReplicateCount());
+		assertTrue(loaded.contains(0) && loaded.contains(1) && loaded.contains(3));
+		assertFalse(loaded.contains(2));
+
+		// outcomes come by replicate number, whatever order they were added in
+		SortedMap<Integer, Outcome> kappa = loaded.getOutcomes("kappa");
+		assertEquals(Arrays.asList(0, 1, 3), new ArrayList<>(kappa.keySet()));
+		for (int replicate : kappa.keySet()) {
+			assertOutcome(replicate, replicate != 1, kappa.get(replicate));
+		}
+		assertEquals(1, loaded.getOutcomes("birthRate").size());
+		assertOutcome(0, false, loaded.getOutcomes("birthRate").get(0));
+	}
+
+	@Test
+	public void testMerge() throws IOException {
+		File file = new File(folder.getRoot(), "coverage.acc");
+		CoverageAccumulator first = CoverageAccumulator.load(file);
+		first.setFirstFileNumber(0);
+		for (int replicate = 0; replicate < 2; replicate++) {
+			first.add("kappa", replicate, outcome(replicate, true));
+			first.addReplicate(replicate);
+		}
+		first.save();
+
+		// a later run adds the replicates that completed since
+		CoverageAccumulator second = CoverageAccumulator.load(file);
+		for (int replicate = 2; replicate < 4; replicate++) {
+			assertFalse(second.contains(replicate));
+			second.add("kappa", replicate, outcome(replicate, false));
+			second.add("gamma", replicate, outcome(replicate, true));
+			second.addReplicate(replicate);
+		}
+		second.save();
+
+		CoverageAccumulator merged = CoverageAccumulator.load(file);
+		assertEquals(0, merged.getFirstFileNumber());
+		assertEquals(4, merged.getReplicateCount());
+		SortedMap<Integer, Outcome> kappa = merged.getOutcomes("kappa");
+		assertEquals(Arrays.asList(0, 1, 2, 3), new ArrayList<>(kappa.keySet()));
+		for (int replicate : kappa.keySet()) {
+			assertOutcome(replicate, replicate < 2, kappa.get(replicate));
+		}
+		assertEquals(Arrays.asList(2, 3), new ArrayList<>(merged.getOutcomes("gamma").keySet()));
+	}
+
+	@Test(expected = IOException.class)
+	public void testOtherFile() throws IOException {
+		File file = new File(folder.getRoot(), "coverage.acc");
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+			out.writeInt(12345);
+			out.writeInt(1);
+		}
+		CoverageAccumulator.load(file);
+	}
+}
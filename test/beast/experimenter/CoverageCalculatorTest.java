@@ -0,0 +1,97 @@
+package beast.experimenter;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import beastfx.app.util.OutFile;
+import beastvalidation.experimenter.CoverageCalculator;
+
+public class CoverageCalculatorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File write(String name, String... lines) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		try (PrintWriter out = new PrintWriter(file)) {
+			for (String line : lines) {
+				out.println(line);
+			}
+		}
+		return file;
+	}
+
+	/** runs the calculator and returns the rows of the tsv file written for entry x, without its header **/
+	private List<String> run(File log, File logAnalyser) throws Exception {
+		File out = new File(folder.getRoot(), "out");
+		CoverageCalculator calculator = new CoverageCalculator();
+		calculator.initByName("log", log, "logAnalyser", logAnalyser, "out", new OutFile(out.getPath()), "threads", 1);
+		calculator.run();
+		List<String> rows = Files.readAllLines(new File(out, "x.tsv").toPath());
+		return rows.subList(1, rows.size());
+	}
+
+	private File trueValues() throws IOException {
+		// the first sample is skipped
+		return write("truth.log",
+				"Sample\tx",
+				"0\t10.0",
+				"1\t20.0",
+				"2\t30.0",
+				"3\t40.0");
+	}
+
+	@Test
+	public void testFileOrder() throws Exception {
+		File logAnalyser = write("estimates.log",
+				"sample\tfilename\tx.mean\tx.median\tx.95%HPDlo\tx.95%HPDup\tx.ESS",
+				"0\trun3.log\t41.0\t40.5\t30.0\t50.0\t500.0",
+				"1\trun1.log\t21.0\t20.5\t10.0\t30.0\t500.0",
+				"2\trun2.log\t31.0\t30.5\t20.0\t40.0\t500.0");
+		List<String> rows = run(trueValues(), logAnalyser);
+		assertEquals(3, rows.size());
+		// replicates are matched to true values by the numbers of their files
+		assertTrue(rows.get(0), rows.get(0).startsWith("40.0\t40.5\t"));
+		assertTrue(rows.get(1), rows.get(1).startsWith("20.0\t20.5\t"));
+		assertTrue(rows.get(2), rows.get(2).startsWith("30.0\t30.5\t"));
+	}
+
+	@Test
+	public void testDuplicateFileNumbers() throws Exception {
+		// run3 occurs twice, so the file numbers cannot identify replicates
+		File logAnalyser = write("estimates.log",
+				"sample\tfilename\tx.mean\tx.median\tx.95%HPDlo\tx.95%HPDup\tx.ESS",
+				"0\trun3.log\t21.0\t20.5\t10.0\t30.0\t500.0",
+				"1\trun1.log\t31.0\t30.5\t20.0\t40.0\t500.0",
+				"2\ta/run3.log\t41.0\t40.5\t30.0\t50.0\t500.0");
+		List<String> rows = run(trueValues(), logAnalyser);
+		assertEquals(3, rows.size());
+		// so entries are taken to be in the same order as the true values
+		assertTrue(rows.get(0), rows.get(0).startsWith("20.0\t20.5\t"));
+		assertTrue(rows.get(1), rows.get(1).startsWith("30.0\t30.5\t"));
+		assertTrue(rows.get(2), rows.get(2).startsWith("40.0\t40.5\t"));
+	}
+
+	@Test
+	public void testNoMedians() throws Exception {
+		File logAnalyser = write("estimates.log",
+				"sample\tfilename\tx.mean\tx.95%HPDlo\tx.95%HPDup\tx.ESS",
+				"0\trun1.log\t21.0\t10.0\t30.0\t500.0",
+				"1\trun2.log\t31.0\t20.0\t40.0\t500.0",
+				"2\trun3.log\t41.0\t30.0\t50.0\t500.0");
+		List<String> rows = run(trueValues(), logAnalyser);
+		// estimates fall back to the means rather than being NaN
+		assertTrue(rows.get(0), rows.get(0).startsWith("20.0\t21.0\t"));
+		assertTrue(rows.get(1), rows.get(1).startsWith("30.0\t31.0\t"));
+		assertTrue(rows.get(2), rows.get(2).startsWith("40.0\t41.0\t"));
+	}
+}
@@ -0,0 +1,69 @@
+package beast.experimenter;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import beast.base.evolution.alignment.Alignment;
+import beast.base.evolution.alignment.Sequence;
+import beastvalidation.experimenter.CoverageTestXMLGenerator;
+
+public class CoverageTestXMLGeneratorTest {
+
+	private static Document parse(String xml) throws Exception {
+		return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+	}
+
+	private static Alignment simulated(String... taxaAndValues) {
+		Alignment alignment = new Alignment();
+		for (int i = 0; i < taxaAndValues.length; i += 2) {
+			alignment.sequenceInput.get().add(new Sequence(taxaAndValues[i], taxaAndValues[i + 1]));
+		}
+		return alignment;
+	}
+
+	@Test
+	public void testMerge() throws Exception {
+		Document doc = parse("<beast><data id='alignment' spec='Alignment'>"
+				+ "<sequence id='seq_A' spec='Sequence' taxon='A' totalcount='4' value='????'/>"
+				+ "<sequence id='seq_B' spec='Sequence' taxon='B' totalcount='4'>\n????\n</sequence>"
+				+ "</data><run id='mcmc'/></beast>");
+		CoverageTestXMLGenerator.merge(doc, simulated("B", "ACGT", "A", "TTGA"));
+
+		NodeList sequences = doc.getElementsByTagName("sequence");
+		assertEquals(2, sequences.getLength());
+		Element a = (Element) sequences.item(0);
+		Element b = (Element) sequences.item(1);
+		assertEquals("TTGA", a.getAttribute("value"));
+		assertEquals("seq_A", a.getAttribute("id"));
+		assertEquals("4", a.getAttribute("totalcount"));
+		// data given as text is replaced by the value attribute
+		assertEquals("ACGT", b.getAttribute("value"));
+		assertEquals("", b.getTextContent());
+		assertEquals(1, doc.getElementsByTagName("run").getLength());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTaxonNotSimulated() throws Exception {
+		Document doc = parse("<beast><data id='alignment'>"
+				+ "<sequence taxon='A' value='????'/><sequence taxon='C' value='????'/>"
+				+ "</data></beast>");
+		CoverageTestXMLGenerator.merge(doc, simulated("A", "ACGT"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTaxonNotInTemplate() throws Exception {
+		Document doc = parse("<beast><data id='alignment'>"
+				+ "<sequence taxon='A' value='????'/>"
+				+ "</data></beast>");
+		CoverageTestXMLGenerator.merge(doc, simulated("A", "ACGT", "B", "ACGT"));
+	}
+}
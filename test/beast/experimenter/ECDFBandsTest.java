@@ -0,0 +1,91 @@
+package beast.experimenter;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import beastvalidation.experimenter.ECDFBands;
+
+public class ECDFBandsTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/** fraction of simulated experiments with uniform ranks that have their ECDF inside the band everywhere **/
+	private static double fractionInside(double [][] bounds, int N, int bins, int trials) {
+		Random random = new Random(1);
+		int inside = 0;
+		int [] count = new int[bins];
+		for (int i = 0; i < trials; i++) {
+			Arrays.fill(count, 0);
+			for (int j = 0; j < N; j++) {
+				count[random.nextInt(bins)]++;
+			}
+			boolean in = true;
+			int sum = 0;
+			for (int k = 0; k < bins && in; k++) {
+				sum += count[k];
+				double f = (double) sum / N;
+				in = bounds[0][k+1] <= f && f <= bounds[1][k+1];
+			}
+			if (in) {
+				inside++;
+			}
+		}
+		return (double) inside / trials;
+	}
+
+	@Test
+	public void testPointwiseBounds() {
+		// Binomial(100, 0.5) has P(X <= 39) = 0.018, P(X <= 40) = 0.028, P(X <= 59) = 0.972 and P(X <= 60) = 0.982
+		double [][] bounds = ECDFBands.calcPointwiseBounds(100, 2, 0.95);
+		assertArrayEquals(new double[]{0, 0.4, 1}, bounds[0], 1e-12);
+		assertArrayEquals(new double[]{0, 0.6, 1}, bounds[1], 1e-12);
+	}
+
+	@Test
+	public void testSimultaneousBounds() {
+		// with a single point inside, the pointwise band already has the confidence
+		double [][] single = ECDFBands.calcSimultaneousBounds(100, 2, 0.95);
+		assertArrayEquals(new double[]{0, 0.4, 1}, single[0], 1e-12);
+		assertArrayEquals(new double[]{0, 0.6, 1}, single[1], 1e-12);
+
+		int N = 50, bins = 10, trials = 20000;
+		double [][] pointwise = ECDFBands.calcPointwiseBounds(N, bins, 0.95);
+		double [][] simultaneous = ECDFBands.calcSimultaneousBounds(N, bins, 0.95);
+		for (int k = 0; k <= bins; k++) {
+			assertTrue(simultaneous[0][k] <= pointwise[0][k]);
+			assertTrue(simultaneous[1][k] >= pointwise[1][k]);
+		}
+		// the whole ECDF is in the simultaneous band about 95% of the time, but not in the pointwise one
+		double se = Math.sqrt(0.95 * 0.05 / trials);
+		assertTrue(fractionInside(simultaneous, N, bins, trials) > 0.95 - 4 * se);
+		assertTrue(fractionInside(simultaneous, N, bins, trials) < 0.98);
+		assertTrue(fractionInside(pointwise, N, bins, trials) < 0.9);
+	}
+
+	@Test
+	public void testCache() throws IOException, InterruptedException {
+		// simulated bands differ from run to run, so getting the same ones again means they came from the cache
+		double [][] bounds = ECDFBands.getBounds(20, 5, 0.95, 1000, 2, folder.getRoot());
+		assertEquals(1, folder.getRoot().list().length);
+		double [][] cached = ECDFBands.getBounds(20, 5, 0.95, 1000, 2, folder.getRoot());
+		for (int j = 0; j < 2; j++) {
+			assertArrayEquals(bounds[j], cached[j], 0.0);
+		}
+
+		double [][] binomial = ECDFBands.getBounds(20, 5, 0.95, 0, 1, folder.getRoot());
+		assertEquals(2, folder.getRoot().list().length);
+		double [][] expected = ECDFBands.calcSimultaneousBounds(20, 5, 0.95);
+		for (int j = 0; j < 2; j++) {
+			assertArrayEquals(expected[j], binomial[j], 0.0);
+			assertArrayEquals(expected[j], ECDFBands.getBounds(20, 5, 0.95, 0, 1, folder.getRoot())[j], 0.0);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package beast.experimenter;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import beast.base.evolution.tree.Tree;
+import beast.base.parser.NexusParser;
+import beastvalidation.experimenter.NexusTreeReader;
+
+public class NexusTreeReaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File write(String nexus) throws IOException {
+		File file = folder.newFile();
+		try (PrintStream out = new PrintStream(file)) {
+			out.print(nexus);
+		}
+		return file;
+	}
+
+	/** reads the file and checks the tree is the one NexusParser reads, with the same numbers for taxa **/
+	private static Tree read(File file) throws IOException {
+		Tree tree = NexusTreeReader.read(file);
+		NexusParser parser = new NexusParser();
+		parser.parseFile(file);
+		assertEquals(1, parser.trees.size());
+		Tree expected = parser.trees.get(0);
+		assertEquals(expected.getRoot().toNewick(false), tree.getRoot().toNewick(false));
+		assertEquals(expected.getLeafNodeCount(), tree.getLeafNodeCount());
+		for (int i = 0; i < tree.getLeafNodeCount(); i++) {
+			assertEquals(expected.getNode(i).getID(), tree.getNode(i).getID());
+		}
+		return tree;
+	}
+
+	@Test
+	public void testTreeAnnotatorOutput() throws IOException {
+		File file = write("#NEXUS\n\n"
+				+ "[Written by TreeAnnotator; heights=mean, burnin=10%]\n"
+				+ "Begin taxa;\n\tDimensions ntax=4;\n\t\tTaxlabels\n\t\t\tA\n\t\t\tB\n\t\t\tC\n\t\t\tD\n\t\t\t;\nEnd;\n"
+				+ "Begin trees;\n"
+				+ "\tTranslate\n\t\t   1 A,\n\t\t   2 B,\n\t\t   3 C,\n\t\t   4 D\n;\n"
+				+ "tree TREE1 = [&R] ((1[&height=0.0,posterior=1.0]:1.5,2[&height=0.0,posterior=1.0]:1.5)"
+				+ "[&height=1.5,height_95%_HPD={1.2,1.8},posterior=0.75,note=\"a;b,c\"]:0.5,"
+				+ "(3[&height=0.0]:1.0,4[&height=0.0]:1.0)[&height=1.0,posterior=0.5]:1.0)[&height=2.0,posterior=1.0];\n"
+				+ "End;\n");
+		Tree tree = read(file);
+		assertEquals(4, tree.getLeafNodeCount());
+		assertEquals("A", tree.getNode(0).getID());
+		assertEquals("D", tree.getNode(3).getID());
+		assertEquals(2.0, tree.getRoot().getHeight(), 1e-12);
+		assertEquals(0.75, (Double) tree.getNode(0).getParent().getMetaData("posterior"), 1e-12);
+	}
+
+	@Test
+	public void testQuotedTaxa() throws IOException {
+		File file = write("#NEXUS\n"
+				+ "Begin trees;\n"
+				+ "\tTranslate\n\t\t1 'Homo_sapiens',\n\t\t2 'Pan-troglodytes',\n\t\t3 'Gorilla.gorilla'\n;\n"
+				+ "tree TREE1 = ((1:1.0,2:1.0):1.0,3:2.0);\n"
+				+ "End;\n");
+		Tree tree = read(file);
+		assertEquals("Homo_sapiens", tree.getNode(0).getID());
+		assertEquals("Pan-troglodytes", tree.getNode(1).getID());
+		assertEquals("Gorilla.gorilla", tree.getNode(2).getID());
+	}
+
+	@Test
+	public void testOrigins() throws IOException {
+		String tree = "tree TREE1 = ((%d:1.0,%d:1.0):1.0,(%d:0.5,%d:0.5):1.5);\n";
+		for (int origin = 0; origin <= 1; origin++) {
+			File file = write("#NEXUS\n"
+					+ "Begin trees;\n"
+					+ "\tTranslate\n"
+					+ String.format("\t\t%d A,\n\t\t%d B,\n\t\t%d C,\n\t\t%d D\n;\n", origin, origin + 1, origin + 2, origin + 3)
+					+ String.format(tree, origin + 3, origin + 1, origin, origin + 2)
+					+ "End;\n");
+			Tree t = read(file);
+			assertEquals("A", t.getNode(0).getID());
+			assertEquals("D", t.getNode(3).getID());
+			assertSame(t.getNode(3).getParent(), t.getNode(1).getParent());
+			assertSame(t.getNode(0).getParent(), t.getNode(2).getParent());
+		}
+	}
+
+	@Test
+	public void testWithoutTranslateTable() throws IOException {
+		File file = write("#NEXUS\n"
+				+ "Begin trees;\n"
+				+ "tree TREE1 = ((A:1.0,B:1.0):1.0,(C:0.5,D:0.5):1.5);\n"
+				+ "End;\n");
+		Tree tree = read(file);
+		assertEquals(4, tree.getLeafNodeCount());
+		assertEquals(2.0, tree.getRoot().getHeight(), 1e-12);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTwoTrees() throws IOException {
+		File file = write("#NEXUS\n"
+				+ "Begin trees;\n"
+				+ "\tTranslate\n\t\t1 A,\n\t\t2 B,\n\t\t3 C\n;\n"
+				+ "tree STATE_0 = ((1:1.0,2:1.0):1.0,3:2.0);\n"
+				+ "tree STATE_1 = ((1:1.0,3:1.0):1.0,2:2.0);\n"
+				+ "End;\n");
+		NexusTreeReader.read(file);
+	}
+}
@@ -0,0 +1,51 @@
+package beast.experimenter;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import beastvalidation.experimenter.ReportWriter;
+
+public class ReportWriterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testNumbersAsInStrings() throws IOException {
+		double [] values = {0.0, -0.0, 1.0, -1.0, 42.0, -5.0, 9999999.0, -9999999.0, 1e7, -1e7, 1e9, 0.5, -0.25, 1e-3, 1e-4,
+				123.456, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE};
+		int [] ints = {0, 7, -7, 1234567890, Integer.MAX_VALUE, Integer.MIN_VALUE};
+		Random random = new Random(16);
+		StringBuilder expected = new StringBuilder();
+		File file = folder.newFile();
+		try (ReportWriter out = new ReportWriter(file)) {
+			for (double d : values) {
+				out.print(d).print("\t");
+				expected.append(d).append("\t");
+			}
+			for (int i : ints) {
+				out.print(i).print("\t");
+				expected.append(i).append("\t");
+			}
+			for (int i = 0; i < 1000; i++) {
+				// whole and fractional coordinates as in charts
+				double x = i % 2 == 0 ? Math.rint(random.nextGaussian() * 1000) : random.nextGaussian() * 1000;
+				double y = random.nextInt(760);
+				out.point(x, y);
+				expected.append(x).append(',').append(y).append(' ');
+			}
+			out.println();
+			expected.append('\n');
+		}
+		assertEquals(expected.toString(), new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,102 @@
+package beast.experimenter;
+
+import static org.junit.Assert.*;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import beastvalidation.experimenter.SBCAnalyser;
+
+public class SBCAnalyserTest {
+	final static int L = 20;
+	final static int REPLICATES = 500;
+
+	/** bins as found by sorting the sample of every replicate and searching it, as SBCAnalyser did before **/
+	private static int [] sortedBins(double [] trueValues, double [] estimates, int binCount, boolean empiricalBins, boolean binPerSample) {
+		int [] bins = new int[binCount];
+		for (int j = 0; j < trueValues.length; j++) {
+			double [] estimatesX = Arrays.copyOfRange(estimates, j * L, (j + 1) * L);
+			Arrays.sort(estimatesX);
+			if (empiricalBins) {
+				double [] binBoundaries = new double[binCount - 1];
+				if (binPerSample) {
+					binBoundaries = estimatesX;
+				} else {
+					for (int k = 0; k < binCount-1; k++) {
+						int m = (int) (estimatesX.length * (k+1.0)/binCount);
+						binBoundaries[k] = (estimatesX[m] + estimatesX[m+1]) / 2.0;
+					}
+				}
+				int bin = Arrays.binarySearch(binBoundaries, trueValues[j]);
+				if (bin < 0) {
+					bin = -bin-1;
+				}
+				bins[bin]++;
+			} else {
+				int rank = Arrays.binarySearch(estimatesX, trueValues[j]);
+				if (rank < 0) {
+					rank = 1-rank;
+				}
+				int bin = rank * binCount / L;
+				if (bin == bins.length) {
+					bin--;
+				}
+				bins[bin]++;
+			}
+		}
+		return bins;
+	}
+
+	/**
+	 * Samples take a few integer values and true values are integers or halfway between them, so there are
+	 * ties within the samples, between samples and true values, and between true values and bin boundaries.
+	 */
+	private static void assertSameBins(int binCount, boolean empiricalBins, boolean binPerSample) {
+		Random random = new Random(123);
+		double [] trueValues = new double[REPLICATES];
+		double [] estimates = new double[REPLICATES * L];
+		for (int j = 0; j < REPLICATES; j++) {
+			trueValues[j] = random.nextInt(10) / 2.0;
+			for (int k = 0; k < L; k++) {
+				estimates[j * L + k] = random.nextInt(5);
+			}
+		}
+		int [] expected = sortedBins(trueValues, estimates, binCount, empiricalBins, binPerSample);
+		int [] bins = SBCAnalyser.calcBins(DoubleBuffer.wrap(trueValues), DoubleBuffer.wrap(estimates), binCount, L, empiricalBins, binPerSample);
+		assertArrayEquals(expected, bins);
+		assertEquals(REPLICATES, Arrays.stream(bins).sum());
+	}
+
+	@Test
+	public void testRankedBins() {
+		assertSameBins(5, false, false);
+		assertSameBins(4, false, false);
+	}
+
+	@Test
+	public void testEmpiricalBins() {
+		assertSameBins(5, true, false);
+		assertSameBins(4, true, false);
+	}
+
+	@Test
+	public void testBinPerSample() {
+		assertSameBins(L + 1, true, true);
+	}
+
+	@Test
+	public void testSkip() {
+		// a skipped first line of true values is left out by slicing the column
+		DoubleBuffer trueValues = DoubleBuffer.wrap(new double[]{100.0, 0.5, 2.5});
+		trueValues.position(1);
+		double [] estimates = new double[2 * L];
+		for (int k = 0; k < 2 * L; k++) {
+			estimates[k] = k % L;
+		}
+		int [] bins = SBCAnalyser.calcBins(trueValues.slice(), DoubleBuffer.wrap(estimates), 4, L, false, false);
+		assertArrayEquals(sortedBins(new double[]{0.5, 2.5}, estimates, 4, false, false), bins);
+	}
+}
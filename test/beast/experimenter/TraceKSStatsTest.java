@@ -0,0 +1,95 @@
+package beast.experimenter;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+import org.junit.Test;
+
+import beastvalidation.experimenter.TraceKSStats;
+
+public class TraceKSStatsTest {
+
+	/** whether the path through (i, j) stays inside the band, as decided by TraceKSStats **/
+	private static boolean inside(int i, int j, int m, int n, double d, boolean strict) {
+		long nm = n * (long) m;
+		long upperBound = (long) Math.ceil((d - 1e-12) * nm);
+		long lowerBound = (long) Math.floor((d + 1e-12) * nm);
+		long cnm = strict && lowerBound == upperBound ? upperBound + 1 : upperBound;
+		long dist = Math.abs(i * (long) n - j * (long) m);
+		return strict ? dist <= cnm : dist < cnm;
+	}
+
+	/** p-value as 1 - paths inside the band / all paths, counting paths in doubles as TraceKSStats did before **/
+	private static double countedP(double d, int n, int m, boolean strict) {
+		final double[] lag = new double[n];
+		double last = 0;
+		for (int k = 0; k < n; k++) {
+			lag[k] = inside(0, k + 1, m, n, d, strict) ? 1 : 0;
+		}
+		for (int k = 1; k <= m; k++) {
+			last = inside(k, 0, m, n, d, strict) ? 1 : 0;
+			for (int l = 1; l <= n; l++) {
+				lag[l - 1] = inside(k, l, m, n, d, strict) ? last + lag[l - 1] : 0;
+				last = lag[l - 1];
+			}
+		}
+		return 1 - last / TraceKSStats.binomialCoefficientDouble(n + m, m);
+	}
+
+	/** the same p-value with paths counted exactly, to check small p-values to full precision **/
+	private static double exactCountedP(double d, int n, int m, boolean strict) {
+		BigInteger [] lag = new BigInteger[n + 1];
+		BigInteger all = BigInteger.ONE;
+		for (int i = 0; i <= m; i++) {
+			for (int j = 0; j <= n; j++) {
+				BigInteger count = i == 0 && j == 0 ? BigInteger.ONE : BigInteger.ZERO;
+				if (i > 0) {
+					count = count.add(lag[j]);
+				}
+				if (j > 0) {
+					count = count.add(lag[j - 1]);
+				}
+				lag[j] = inside(i, j, m, n, d, strict) ? count : BigInteger.ZERO;
+			}
+		}
+		for (int k = 1; k <= n; k++) {
+			all = all.multiply(BigInteger.valueOf(m + k)).divide(BigInteger.valueOf(k));
+		}
+		BigInteger outside = all.subtract(lag[n]);
+		return new BigDecimal(outside).divide(new BigDecimal(all), MathContext.DECIMAL64).doubleValue();
+	}
+
+	@Test
+	public void testAgainstCountedPaths() {
+		TraceKSStats stats = new TraceKSStats();
+		int [][] sizes = {{5, 5}, {7, 3}, {10, 12}, {20, 15}, {50, 40}};
+		for (int [] size : sizes) {
+			int n = size[0], m = size[1];
+			for (int k = 1; k <= n * m; k += Math.max(1, n * m / 20)) {
+				double d = k / (double) (n * m);
+				for (boolean strict : new boolean[]{false, true}) {
+					double expected = countedP(d, n, m, strict);
+					assertEquals("n=" + n + " m=" + m + " d=" + d + " strict=" + strict, expected, stats.exactP(d, n, m, strict), 1e-12);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSmallPValues() {
+		TraceKSStats stats = new TraceKSStats();
+		int [][] sizes = {{30, 30}, {60, 45}, {99, 100}};
+		for (int [] size : sizes) {
+			int n = size[0], m = size[1];
+			for (double d : new double[]{0.5, 0.7, 0.9, 1.0}) {
+				double expected = exactCountedP(d, n, m, false);
+				double p = stats.exactP(d, n, m, false);
+				assertTrue(expected > 0);
+				assertEquals("n=" + n + " m=" + m + " d=" + d, 1.0, p / expected, 1e-9);
+			}
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package beast.experimenter;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import beastvalidation.experimenter.TraceStore;
+
+public class TraceStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File writeLog(String name, double offset, int rows) throws IOException {
+		File log = new File(folder.getRoot(), name);
+		try (PrintWriter out = new PrintWriter(log)) {
+			out.println("# comment");
+			out.println("Sample\tposterior\tmodel");
+			for (int i = 0; i < rows; i++) {
+				out.println(i * 1000 + "\t" + (offset + i) + "\t" + (i % 2 == 0 ? "hky" : "gtr"));
+			}
+		}
+		return log;
+	}
+
+	@Test
+	public void testConversion() throws IOException {
+		File cacheDir = folder.newFolder("cache");
+		File log = writeLog("test.log", 0.5, 4);
+		try (TraceStore store = TraceStore.open(log, 0, cacheDir)) {
+			assertEquals(Arrays.asList("posterior", "model"), store.getLabels());
+			assertEquals(4, store.getSampleCount());
+			assertArrayEquals(new double[]{0, 1000, 2000, 3000}, store.getTrace(0), 0.0);
+			assertArrayEquals(new double[]{0.5, 1.5, 2.5, 3.5}, store.getTrace("posterior"), 0.0);
+			// entries that are not numbers are indices into the range of their column
+			assertArrayEquals(new double[]{0, 1, 0, 1}, store.getTrace("model"), 0.0);
+			assertEquals(Arrays.asList("hky", "gtr"), store.getRanges()[store.indexOf("model")]);
+			assertTrue(store.getRanges()[store.indexOf("posterior")].isEmpty());
+			assertEquals(-1, store.indexOf("likelihood"));
+		}
+		// the cache is kept in the cache directory, not next to the log
+		assertEquals(1, cacheDir.list().length);
+		assertEquals(1, folder.getRoot().list((dir, name) -> name.startsWith("test.log")).length);
+
+		// the cache is used as it is
+		File cache = cacheDir.listFiles()[0];
+		long modified = cache.lastModified();
+		try (TraceStore store = TraceStore.open(log, 0, cacheDir)) {
+			assertArrayEquals(new double[]{0.5, 1.5, 2.5, 3.5}, store.getTrace("posterior"), 0.0);
+		}
+		assertEquals(modified, cache.lastModified());
+	}
+
+	@Test
+	public void testInvalidation() throws IOException {
+		File cacheDir = folder.newFolder("cache");
+		File log = writeLog("test.log", 0.5, 4);
+		long modified = log.lastModified();
+		try (TraceStore store = TraceStore.open(log, 0, cacheDir)) {
+			assertEquals(0.5, store.getTrace("posterior")[0], 0.0);
+		}
+
+		// same length and time, but other content
+		writeLog("test.log", 1.5, 4);
+		assertTrue(log.setLastModified(modified));
+		try (TraceStore store = TraceStore.open(log, 0, cacheDir)) {
+			assertArrayEquals(new double[]{1.5, 2.5, 3.5, 4.5}, store.getTrace("posterior"), 0.0);
+		}
+
+		// more samples
+		writeLog("test.log", 1.5, 6);
+		try (TraceStore store = TraceStore.open(log, 0, cacheDir)) {
+			assertEquals(6, store.getSampleCount());
+		}
+	}
+
+	@Test
+	public void testEditInTheMiddle() throws IOException {
+		File cacheDir = folder.newFolder("cache");
+		// long enough that the middle is far from both ends
+		File log = writeLog("test.log", 0.5, 20000);
+		long modified = log.lastModified();
+		try (TraceStore store = TraceStore.open(log, 0, cacheDir)) {
+			assertEquals(10000.5, store.getTrace("posterior")[10000], 0.0);
+		}
+
+		// same length and time, as for a file restored with cp -p, but one sample in the middle differs
+		String content = new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8);
+		assertTrue(content.contains("\t10000.5\t"));
+		Files.write(log.toPath(), content.replace("\t10000.5\t", "\t99999.5\t").getBytes(StandardCharsets.UTF_8));
+		assertTrue(log.setLastModified(modified));
+		try (TraceStore store = TraceStore.open(log, 0, cacheDir)) {
+			assertEquals(99999.5, store.getTrace("posterior")[10000], 0.0);
+		}
+		// the temporary file the cache was written to is gone
+		assertEquals(1, cacheDir.list().length);
+	}
+
+	@Test
+	public void testBurnIn() throws IOException {
+		File log = writeLog("test.log", 0.0, 10);
+		try (TraceStore store = TraceStore.open(log, 25, folder.getRoot())) {
+			// 25% of 10 samples leaves out 2
+			assertEquals(8, store.getSampleCount());
+			assertArrayEquals(new double[]{2, 3, 4, 5, 6, 7, 8, 9}, store.getTrace("posterior"), 0.0);
+			assertEquals(8, store.getColumn(store.indexOf("posterior")).remaining());
+			assertEquals(2.0, store.getColumn(store.indexOf("posterior")).get(0), 0.0);
+		}
+		try (TraceStore store = TraceStore.open(log, 0, folder.getRoot())) {
+			assertEquals(10, store.getSampleCount());
+		}
+	}
+}
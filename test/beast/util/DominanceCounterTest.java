@@ -0,0 +1,44 @@
+package beast.util;
+
+import org.junit.Test;
+
+import beastvalidation.util.DominanceCounter;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DominanceCounterTest {
+
+    private static long[] bruteForce(double[][] points, int[] weights){
+        long[] counts = new long[points.length];
+        for(int i = 0; i < points.length; i++){
+            for(int k = 0; k < points.length; k++){
+                boolean dominated = true;
+                for(int dim = 0; dim < points[i].length; dim++){
+                    if(points[k][dim] > points[i][dim]) dominated = false;
+                }
+                if(dominated) counts[i] += weights[k];
+            }
+        }
+        return counts;
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random random = new Random(123);
+        for(int d = 1; d <= 4; d++){
+            // values are rounded so that there are ties in every dimension
+            double[][] points = new double[300][d];
+            int[] weights = new int[points.length];
+            for(int i = 0; i < points.length; i++){
+                for(int dim = 0; dim < d; dim++) points[i][dim] = Math.round(random.nextGaussian() * 4) / 4.0;
+                weights[i] = random.nextInt(4);
+            }
+
+            long[] actual = new long[points.length];
+            new DominanceCounter(points).count(weights, actual);
+            assertArrayEquals("dimension " + d, bruteForce(points, weights), actual);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package beast.util;
+
+import org.junit.Test;
+
+import beastvalidation.util.EffectiveSampleSize;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EffectiveSampleSizeTest {
+
+    @Test
+    public void testAutocorrelationMatchesDirectSum() {
+        Random random = new Random(7);
+        double[] trace = new double[300];
+        for(int i = 0; i < trace.length; i++) trace[i] = random.nextGaussian() + (i > 0 ? 0.5 * trace[i - 1] : 0);
+
+        double mean = 0;
+        for(double x: trace) mean += x;
+        mean /= trace.length;
+        double[] rho = EffectiveSampleSize.calcAutocorrelation(trace);
+        double c0 = 0;
+        for(double x: trace) c0 += (x - mean) * (x - mean);
+        for(int lag = 0; lag < trace.length; lag += 37){
+            double c = 0;
+            for(int i = 0; i + lag < trace.length; i++) c += (trace[i] - mean) * (trace[i + lag] - mean);
+            assertEquals(c / c0, rho[lag], 1e-10);
+        }
+    }
+
+    @Test
+    public void testAR1() {
+        // an AR(1) process with coefficient phi has tau = (1 + phi) / (1 - phi)
+        Random random = new Random(11);
+        int n = 200000;
+        double phi = 0.9;
+        double[] trace = new double[n];
+        for(int i = 1; i < n; i++) trace[i] = phi * trace[i - 1] + random.nextGaussian();
+
+        double expected = n * (1 - phi) / (1 + phi);
+        assertEquals(expected, EffectiveSampleSize.calcESS(trace), 0.1 * expected);
+        assertEquals(19, EffectiveSampleSize.calcThinning(n, EffectiveSampleSize.calcESS(trace)), 2);
+
+        double[] independent = new double[n];
+        for(int i = 0; i < n; i++) independent[i] = random.nextGaussian();
+        assertEquals(n, EffectiveSampleSize.calcESS(independent), 0.1 * n);
+        assertEquals(1, EffectiveSampleSize.calcThinning(n, EffectiveSampleSize.calcESS(independent)));
+    }
+
+    @Test
+    public void testConstantTrace() {
+        assertTrue(Double.isNaN(EffectiveSampleSize.calcESS(new double[]{ 2, 2, 2, 2 })));
+        assertEquals(1, EffectiveSampleSize.calcThinning(4, Double.NaN));
+    }
+}
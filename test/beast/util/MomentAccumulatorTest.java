@@ -0,0 +1,39 @@
+package beast.util;
+
+import org.apache.commons.math3.stat.descriptive.MultivariateSummaryStatistics;
+import org.junit.Test;
+
+import beastvalidation.util.MomentAccumulator;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MomentAccumulatorTest {
+
+    @Test
+    public void testMatchesSummaryStatistics() {
+        Random random = new Random(42);
+        MomentAccumulator all = new MomentAccumulator(3);
+        MomentAccumulator first = new MomentAccumulator(3);
+        MomentAccumulator second = new MomentAccumulator(3);
+        MultivariateSummaryStatistics stats = new MultivariateSummaryStatistics(3, false);
+        for(int i = 0; i < 500; i++){
+            double[] x = new double[]{ random.nextGaussian() + 100, random.nextGaussian(), random.nextDouble() };
+            x[1] += x[0];
+            all.add(x);
+            (i < 200 ? first : second).add(x);
+            stats.addValue(x);
+        }
+        first.add(second);
+
+        double[][] expected = stats.getCovariance().getData();
+        for(MomentAccumulator moments: new MomentAccumulator[]{ all, first }){
+            assertEquals(500, moments.getCount());
+            assertArrayEquals(stats.getMean(), moments.getMean(), 1e-10);
+            for(int j = 0; j < 3; j++){
+                assertArrayEquals(expected[j], moments.getCovariance()[j], 1e-10);
+            }
+        }
+    }
+}
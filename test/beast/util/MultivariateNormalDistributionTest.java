@@ -22,4 +22,58 @@ public class MultivariateNormalDistributionTest {
         double expected = -2.6364360042659536;
         assertEquals(expected, actual.logDensity(x), 1e-6);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBatchLogDensity() {
+        double[] means = new double[]{ 0.20153336, 0.58806799 };
+        double[][] cov = new double[][]{
+                new double[]{ 0.61723109, 0.49920416 },
+                new double[]{ 0.49920416, 3.24306295 }
+        };
+        double[][] points = new double[][]{
+                new double[]{ 0.12241642, 0.91228336 },
+                new double[]{ -1.5, 2.0 },
+                new double[]{ 3.0, -0.25 }
+        };
+        double[] flat = new double[]{ 0.12241642, 0.91228336, -1.5, 2.0, 3.0, -0.25 };
+
+        MultivariateNormalDistribution distribution = new MultivariateNormalDistribution(means, cov);
+        double[] rows = new double[points.length];
+        double[] flatRows = new double[points.length];
+        distribution.logDensity(points, rows);
+        distribution.logDensity(flat, flatRows);
+        for(int i = 0; i < points.length; i++){
+            assertEquals(distribution.logDensity(points[i]), rows[i], 0.0);
+            assertEquals(distribution.logDensity(points[i]), flatRows[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testTinyVariances() {
+        // variances around 1e-12, as for rates, are below the default positivity threshold of the Cholesky decomposition
+        double s = 1e-12;
+        double[] means = new double[]{ 0.20153336, 0.58806799, 0.59036867 };
+        double[][] cov = new double[][]{
+                new double[]{ 0.61723109, 0.49920416, 0.0202322 },
+                new double[]{ 0.49920416, 3.24306295, 0.51723184 },
+                new double[]{ 0.0202322 , 0.51723184, 0.34749632 }
+        };
+        double[] x = new double[]{ 0.12241642, 0.91228336, 1.01138388 };
+        double[] scaledMeans = new double[3];
+        double[][] scaledCov = new double[3][3];
+        double[] scaledX = new double[3];
+        for(int i = 0; i < 3; i++){
+            scaledMeans[i] = means[i] * Math.sqrt(s);
+            scaledX[i] = x[i] * Math.sqrt(s);
+            for(int j = 0; j < 3; j++){
+                scaledCov[i][j] = cov[i][j] * s;
+            }
+        }
+
+        MultivariateNormalDistribution distribution = new MultivariateNormalDistribution(means, cov);
+        MultivariateNormalDistribution scaled = new MultivariateNormalDistribution(scaledMeans, scaledCov);
+        // scaling every coordinate by sqrt(s) divides the density by sqrt(s)^dim
+        double expected = distribution.logDensity(x) - 0.5 * 3 * Math.log(s);
+        assertEquals(expected, scaled.logDensity(scaledX), 1e-8);
+    }
+}
@@ -0,0 +1,65 @@
+package beast.validation.samples;
+
+import org.junit.Test;
+
+import beastvalidation.validation.samples.ArraySampleStore;
+import beastvalidation.validation.samples.MappedSampleStore;
+import beastvalidation.validation.samples.SampleStore;
+import beastvalidation.validation.samples.SampleView;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class SampleStoreTest {
+
+    private static final double[][] DATA = new double[][]{
+            new double[]{ 1.06307305, -0.69238605, -0.1043074 },
+            new double[]{ 0.79800287,  2.37851236, -1.08479476 },
+            new double[]{ 2.30339478, -0.30098666, -0.0768391 }
+    };
+
+    private void fill(SampleStore store){
+        for(int i = 0; i < DATA.length; i++) store.setSample(i, DATA[i]);
+    }
+
+    private void assertStoresData(SampleView view, int sampleCount){
+        assertEquals(sampleCount, view.getSampleCount());
+        assertEquals(DATA[0].length, view.getDimension());
+        for(int i = 0; i < sampleCount; i++){
+            assertArrayEquals(DATA[i], view.getSample(i, new double[view.getDimension()]), 0.0);
+        }
+    }
+
+    @Test
+    public void testArrayStore(){
+        SampleStore store = new ArraySampleStore(DATA.length, DATA[0].length);
+        fill(store);
+        assertStoresData(store, DATA.length);
+        assertArrayEquals(new double[]{ -0.69238605, 2.37851236, -0.30098666 }, store.getColumn(1, new double[DATA.length]), 0.0);
+    }
+
+    @Test
+    public void testMappedStore() throws IOException {
+        SampleStore store = new MappedSampleStore(DATA.length, DATA[0].length);
+        fill(store);
+        assertStoresData(store, DATA.length);
+        assertArrayEquals(new double[]{ -0.1043074, -1.08479476, -0.0768391 }, store.getColumn(2, new double[DATA.length]), 0.0);
+        store.close();
+    }
+
+    @Test
+    public void testPrefix(){
+        SampleStore store = new ArraySampleStore(DATA.length, DATA[0].length);
+        fill(store);
+        assertStoresData(store.prefix(2), 2);
+        assertEquals(2, store.prefix(2).toArray().length);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testPrefixBounds(){
+        SampleStore store = new ArraySampleStore(DATA.length, DATA[0].length);
+        fill(store);
+        store.prefix(2).getValue(2, 0);
+    }
+}
@@ -0,0 +1,57 @@
+package beast.validation.statistics;
+
+import beast.base.core.Input;
+import beast.base.inference.Distribution;
+import beast.base.inference.State;
+import beast.base.inference.parameter.RealParameter;
+import beastvalidation.validation.statistics.GradientProvider;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Independent normal densities with mean 0 and precision i + 1 for dimension i of the parameter,
+ * with an analytic gradient that can be made wrong on purpose.
+ */
+public class GaussianTestDistribution extends Distribution implements GradientProvider {
+    public Input<RealParameter> xInput = new Input<>("x", "Parameter the density is of", Input.Validate.REQUIRED);
+    public Input<Double> gradientErrorInput = new Input<>("gradientError", "Added to the last component of the analytic gradient", 0.0, Input.Validate.OPTIONAL);
+
+    @Override
+    public void initAndValidate() {
+    }
+
+    @Override
+    public double calculateLogP() {
+        RealParameter x = xInput.get();
+        logP = 0.0;
+        for(int i = 0; i < x.getDimension(); i++){
+            logP += 0.5 * Math.log((i + 1) / (2 * Math.PI)) - 0.5 * (i + 1) * x.getValue(i) * x.getValue(i);
+        }
+        return logP;
+    }
+
+    @Override
+    public double[] getGradientLogP(RealParameter parameter) {
+        double[] gradient = new double[parameter.getDimension()];
+        for(int i = 0; i < gradient.length; i++){
+            gradient[i] = -(i + 1) * parameter.getValue(i);
+        }
+        gradient[gradient.length - 1] += gradientErrorInput.get();
+        return gradient;
+    }
+
+    @Override
+    public List<String> getArguments() {
+        return null;
+    }
+
+    @Override
+    public List<String> getConditions() {
+        return null;
+    }
+
+    @Override
+    public void sample(State state, Random random) {
+    }
+}
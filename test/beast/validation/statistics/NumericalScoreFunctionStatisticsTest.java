@@ -0,0 +1,106 @@
+package beast.validation.statistics;
+
+import beast.base.inference.parameter.RealParameter;
+import beastvalidation.validation.statistics.NumericalScoreFunctionStatistics;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NumericalScoreFunctionStatisticsTest {
+
+    private static final double[] X = new double[]{ 0.5, -1.0, 1.5, 2.0, -0.25, 3.0 };
+
+    private static NumericalScoreFunctionStatistics create(double gradientError, Object... args){
+        Double[] values = new Double[X.length];
+        for(int i = 0; i < X.length; i++) values[i] = X[i];
+        RealParameter x = new RealParameter(values);
+        x.setID("x");
+        GaussianTestDistribution likelihood = new GaussianTestDistribution();
+        likelihood.initByName("x", x, "gradientError", gradientError);
+        likelihood.setID("likelihood");
+
+        Object[] allArgs = new Object[args.length + 6];
+        System.arraycopy(new Object[]{ "state", x, "likelihood", likelihood, "parameter", x }, 0, allArgs, 0, 6);
+        System.arraycopy(args, 0, allArgs, 6, args.length);
+        NumericalScoreFunctionStatistics statistics = new NumericalScoreFunctionStatistics();
+        statistics.initByName(allArgs);
+        return statistics;
+    }
+
+    private static double[] gradient(int threads){
+        NumericalScoreFunctionStatistics statistics = create(0.0, "useGradient", false, "threads", threads);
+        statistics.setID("score");
+        try {
+            statistics.updateStatistics(0);
+            return statistics.getArrayValues().clone();
+        } finally {
+            statistics.release();
+        }
+    }
+
+    @Test
+    public void testThreadsGiveSameGradient(){
+        double[] serial = gradient(1);
+        assertArrayEquals(serial, gradient(4), 0.0);
+
+        for(int i = 0; i < X.length; i++){
+            assertEquals(-(i + 1) * X[i], serial[i], 1e-6 * (i + 1) * Math.max(1.0, Math.abs(X[i])));
+        }
+    }
+
+    @Test
+    public void testMultiDimensionalParameter(){
+        // every dimension is perturbed around, and restored to, its own value
+        NumericalScoreFunctionStatistics statistics = create(0.0, "useGradient", false);
+        RealParameter x = (RealParameter) statistics.parametersInput.get().get(0);
+        statistics.updateStatistics(0);
+        for(int i = 0; i < X.length; i++){
+            assertEquals(X[i], x.getValue(i), 0.0);
+            assertEquals(-(i + 1) * X[i], statistics.getArrayValue(i), 1e-6 * (i + 1) * Math.max(1.0, Math.abs(X[i])));
+        }
+    }
+
+    @Test
+    public void testAnalyticGradient(){
+        NumericalScoreFunctionStatistics statistics = create(0.0, "verifyRate", 1.0, "verifyComponents", X.length);
+        statistics.updateStatistics(0);
+        for(int i = 0; i < X.length; i++){
+            assertEquals(-(i + 1) * X[i], statistics.getArrayValue(i), 0.0);
+        }
+    }
+
+    @Test
+    public void testVerifyWrongGradient(){
+        NumericalScoreFunctionStatistics statistics = create(0.1, "verifyRate", 1.0, "verifyComponents", 1);
+        // components are chosen at random, so only some samples check the wrong one
+        int failures = 0;
+        for(int sampleNr = 0; sampleNr < 100; sampleNr++){
+            try {
+                statistics.updateStatistics(sampleNr);
+            } catch (RuntimeException e) {
+                failures++;
+            }
+        }
+        assertTrue(failures > 0);
+        assertTrue(failures < 100);
+    }
+
+    @Test
+    public void testVerifyRate(){
+        // with a wrong gradient every verified sample has a chance of failing, but not one is verified
+        NumericalScoreFunctionStatistics statistics = create(0.1, "verifyRate", 0.0);
+        for(int sampleNr = 0; sampleNr < 100; sampleNr++) statistics.updateStatistics(sampleNr);
+
+        NumericalScoreFunctionStatistics verified = create(0.1, "verifyRate", 0.05, "verifyComponents", X.length);
+        int failures = 0;
+        for(int sampleNr = 0; sampleNr < 1000; sampleNr++){
+            try {
+                verified.updateStatistics(sampleNr);
+            } catch (RuntimeException e) {
+                failures++;
+            }
+        }
+        assertTrue(failures > 0);
+        assertTrue(failures < 200);
+    }
+}
@@ -3,8 +3,12 @@ package beast.validation.tests;
 import org.apache.commons.math3.stat.descriptive.MultivariateSummaryStatistics;
 import org.junit.Test;
 
+import beastvalidation.util.MomentAccumulator;
+import beastvalidation.validation.samples.SampleView;
 import beastvalidation.validation.tests.MultivariateNormalZeroMeanTest;
 
+import java.util.Random;
+
 import static org.junit.Assert.*;
 
 public class MultivariateNormalZeroMeanTestTest {
@@ -42,4 +46,39 @@ public class MultivariateNormalZeroMeanTestTest {
         }
     }
 
-}
\ No newline at end of file
+    private static double[][] randomData(int n, int d, double scale){
+        Random random = new Random(1);
+        double[][] data = new double[n][d];
+        for(int i = 0; i < n; i++){
+            for(int j = 0; j < d; j++) data[i][j] = scale * (random.nextGaussian() + 0.1 * j);
+        }
+        return data;
+    }
+
+    @Test
+    public void testMomentsGiveSamePValue(){
+        double[][] data = randomData(200, 3, 1.0);
+        MultivariateNormalZeroMeanTest test = new MultivariateNormalZeroMeanTest();
+        test.performTest(new SampleView[]{ SampleView.of(data) });
+
+        MomentAccumulator moments = new MomentAccumulator(3);
+        for(double[] row: data) moments.add(row);
+        MultivariateNormalZeroMeanTest momentTest = new MultivariateNormalZeroMeanTest();
+        momentTest.performTest(new MomentAccumulator[]{ moments });
+
+        assertEquals(test.getPValue(), momentTest.getPValue(), 0.0);
+    }
+
+    @Test
+    public void testTinyVariances(){
+        // the test statistic does not depend on the scale of the data
+        MultivariateNormalZeroMeanTest test = new MultivariateNormalZeroMeanTest();
+        test.performTest(new SampleView[]{ SampleView.of(randomData(200, 3, 1.0)) });
+
+        MultivariateNormalZeroMeanTest scaled = new MultivariateNormalZeroMeanTest();
+        scaled.performTest(new SampleView[]{ SampleView.of(randomData(200, 3, 1e-8)) });
+
+        assertEquals(test.getPValue(), scaled.getPValue(), 1e-6);
+    }
+
+}